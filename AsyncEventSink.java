@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+
+/**
+ * Event sink which writes events as lines of text, e.g., to a file. The calling threads only enqueue the raw event values into a bounded queue; formatting and buffered writing is done by a background thread. If the queue is full, events are dropped rather than blocking the caller.
+ */
+public class AsyncEventSink implements EventSink, Closeable {
+
+    private static final Logger log = Logger.getLogger( AsyncEventSink.class.getSimpleName() );
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+
+    /**
+     * The raw values of an event. Only references to existing strings and primitives are captured.
+     */
+    private static final class Event {
+
+        private static final Event END = new Event( null, null, 0, 0, 0, null, 0 );
+
+        private final String kind;
+        private final String node;
+        private final long nodeHash;
+        private final int index;
+        private final long value;
+        private final String other;
+        private final long otherHash;
+        private final long time = System.currentTimeMillis();
+
+
+        private Event( String kind, String node, long nodeHash, int index, long value, String other, long otherHash ) {
+            this.kind = kind;
+            this.node = node;
+            this.nodeHash = nodeHash;
+            this.index = index;
+            this.value = value;
+            this.other = other;
+            this.otherHash = otherHash;
+        }
+    }
+
+
+    private final Writer out;
+    private final EventSink.Level level;
+    private final BlockingQueue<Event> queue;
+    private final Thread writer;
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * Set if writing failed, which stops the writer thread; rethrown by {@link #close()}.
+     */
+    private volatile IOException failure;
+
+
+    /**
+     * Constructor
+     *
+     * @param out where the events are written to; closed by {@link #close()}
+     * @param level the most verbose level of events to write
+     * @param capacity maximum number of events waiting to be written
+     */
+    public AsyncEventSink( Writer out, EventSink.Level level, int capacity ) {
+        this.out = out;
+        this.level = level;
+        this.queue = new ArrayBlockingQueue<Event>( capacity );
+        this.writer = new Thread( new Runnable() {
+            @Override
+            public void run() {
+                writeEvents();
+            }
+        }, "event-sink" );
+        this.writer.setDaemon( true );
+        this.writer.start();
+    }
+
+
+    /**
+     * Opens a sink writing to a file, which is overwritten.
+     *
+     * @param file the file
+     * @param level the most verbose level of events to write
+     * @return the sink
+     * @throws IOException if the file cannot be opened
+     */
+    public static AsyncEventSink open( File file, EventSink.Level level ) throws IOException {
+        Writer out = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), StandardCharsets.UTF_8 ), 1 << 16 );
+        return new AsyncEventSink( out, level, DEFAULT_CAPACITY );
+    }
+
+
+    @Override
+    public boolean isEnabled( EventSink.Level level ) {
+        return !closed && failure == null && level.compareTo( this.level ) <= 0;
+    }
+
+
+    @Override
+    public void fingerChanged( ChordPeerNode owner, int index, long start, PeerNode node ) {
+        enqueue( new Event( "finger", owner.getNodeID(), owner.getNodeHash(), index, start, node.getNodeID(), node.getNodeHash() ) );
+    }
+
+
+    @Override
+    public void lookupResolved( PeerNode at, long keyHash, PeerNode node ) {
+        enqueue( new Event( "lookup", at.getNodeID(), at.getNodeHash(), 0, keyHash, node.getNodeID(), node.getNodeHash() ) );
+    }
+
+
+    @Override
+    public void peerFailed( PeerNode node ) {
+        enqueue( new Event( "failed", node.getNodeID(), node.getNodeHash(), 0, 0, null, 0 ) );
+    }
+
+
+    /**
+     * Returns the number of events dropped because the queue was full.
+     *
+     * @return number of dropped events
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+
+    /**
+     * Writes all pending events and closes the output.
+     *
+     * @throws IOException if writing the events or closing the output failed
+     */
+    @Override
+    public void close() throws IOException {
+        if ( closed ) {
+            return;
+        }
+        closed = true;
+        try {
+            // a writer which stopped on a failure does not drain the queue any more, so do not wait for room forever
+            while ( writer.isAlive() && !queue.offer( Event.END, 100, TimeUnit.MILLISECONDS ) ) {
+            }
+            writer.join();
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        out.close();
+        if ( failure != null ) {
+            throw failure;
+        }
+    }
+
+
+    private void enqueue( Event event ) {
+        if ( !queue.offer( event ) ) {
+            dropped.increment();
+        }
+    }
+
+
+    private void writeEvents() {
+        StringBuilder line = new StringBuilder( 128 );
+        try {
+            while ( true ) {
+                Event event = queue.take();
+                while ( event != null ) {
+                    if ( event == Event.END ) {
+                        out.flush();
+                        return;
+                    }
+                    line.setLength( 0 );
+                    format( event, line );
+                    out.append( line );
+                    event = queue.poll();
+                }
+                // flush whenever the queue runs empty
+                out.flush();
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        } catch ( IOException e ) {
+            failure = e;
+            log.log( java.util.logging.Level.WARNING, "Writing events failed", e );
+        }
+    }
+
+
+    private static void format( Event event, StringBuilder line ) {
+        line.append( event.time ).append( ' ' ).append( event.kind ).append( ' ' )
+                .append( event.node ).append( " (" ).append( event.nodeHash ).append( ')' );
+        if ( event.kind.equals( "finger" ) ) {
+            line.append( " [" ).append( event.index ).append( "] start " ).append( event.value ).append( " -> " );
+        } else if ( event.kind.equals( "lookup" ) ) {
+            line.append( " hash " ).append( event.value ).append( " -> " );
+        }
+        if ( event.other != null ) {
+            line.append( event.other ).append( " (" ).append( event.otherHash ).append( ')' );
+        }
+        line.append( '\n' );
+    }
+}
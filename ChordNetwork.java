@@ -5,62 +5,334 @@
 package ch.unibas.dmi.dbis.fds.p2p;
 
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Modifier;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 
 public class ChordNetwork extends Network {
 
-    private final Class<? extends ChordPeerNode> chordPeerClass;
-    private final boolean useSuccessorConstructor;
+    /**
+     * Default length of the successor lists of the peers. With a single entry, a peer knows only its immediate successor.
+     */
+    public static final int DEFAULT_SUCCESSOR_LIST_LENGTH = 1;
+
+    /**
+     * Creates the peers of this network; resolved once.
+     */
+    private final PeerFactory peerFactory;
+
+    /**
+     * Runs the periodic self-stabilization of all peers of this network.
+     */
+    private final StabilizationScheduler stabilizationScheduler = new StabilizationScheduler();
+
+    /**
+     * Number of successors every peer keeps track of, to bridge failed successors.
+     */
+    private volatile int successorListLength = DEFAULT_SUCCESSOR_LIST_LENGTH;
+
+    /**
+     * Default number of copies of every data item, including the one at the responsible peer.
+     */
+    public static final int DEFAULT_REPLICATION_FACTOR = 1;
+
+    /**
+     * Default number of stabilizations of a peer between two repairs of its replicas.
+     */
+    public static final int DEFAULT_REPLICA_REPAIR_PERIOD = 4;
+
+    /**
+     * Number of copies of every data item: one at the responsible peer and one at each of its first replicationFactor - 1 successors.
+     */
+    private volatile int replicationFactor = DEFAULT_REPLICATION_FACTOR;
+
+    /**
+     * Number of stabilizations of a peer between two repairs of its replicas.
+     */
+    private volatile int replicaRepairPeriod = DEFAULT_REPLICA_REPAIR_PERIOD;
+
+    /**
+     * Maximum number of resolved lookups every peer caches; 0 disables the caches.
+     */
+    private volatile int lookupCacheSize = 0;
+
+    /**
+     * If set, lookups are resolved by the ring index instead of being routed along the pointers of the peers.
+     */
+    private volatile boolean oracleRouting = false;
 
 
     /**
      * Constructor
      *
      * @param numberOfBits bits used for the identifier ring
+     * @param chordPeerClass the class of the peers, see {@link PeerFactory#of(Class)}
      */
     public ChordNetwork( int numberOfBits, Class<? extends ChordPeerNode> chordPeerClass ) {
+        this( numberOfBits, PeerFactory.of( chordPeerClass ) );
+    }
+
+
+    /**
+     * Constructor
+     *
+     * @param numberOfBits bits used for the identifier ring
+     * @param peerFactory creates the peers of this network
+     */
+    public ChordNetwork( int numberOfBits, PeerFactory peerFactory ) {
         super( numberOfBits );
+        this.peerFactory = peerFactory;
+    }
+
+
+    @Override
+    final void arrangeOverlayStructure() {
+        /* This method does not do anything, as Network nodes keep the network structure intact automatically. */
+    }
+
+
+    /**
+     * Gets the scheduler running the periodic self-stabilization of the peers.
+     *
+     * @return the stabilization scheduler
+     */
+    public StabilizationScheduler getStabilizationScheduler() {
+        return stabilizationScheduler;
+    }
+
+
+    public int getSuccessorListLength() {
+        return successorListLength;
+    }
+
+
+    /**
+     * Sets the number of successors every peer keeps track of. The lists are refreshed during stabilization, so only subsequent stabilizations are affected.
+     *
+     * @param successorListLength length of the successor lists, at least 1
+     */
+    public void setSuccessorListLength( int successorListLength ) {
+        if ( successorListLength < 1 ) {
+            throw new IllegalArgumentException( "successorListLength must be at least 1." );
+        }
+        this.successorListLength = successorListLength;
+    }
+
+
+    public int getReplicationFactor() {
+        return replicationFactor;
+    }
+
+
+    /**
+     * Sets the number of copies of every data item. A SET stores the item at the responsible peer and copies it to the first replicationFactor - 1 live peers of its successor list; the periodic stabilization repairs the copies after churn. The successor lists are extended to replicationFactor peers if they are shorter, so the predecessor of a key knows all its replicas. Only subsequent SETs are affected.
+     *
+     * @param replicationFactor number of copies, at least 1
+     * @see ChordPeerImpl#lookupReplicaForItem(PeerNode, String)
+     */
+    public void setReplicationFactor( int replicationFactor ) {
+        if ( replicationFactor < 1 ) {
+            throw new IllegalArgumentException( "replicationFactor must be at least 1." );
+        }
+        if ( replicationFactor > 1 && successorListLength < replicationFactor ) {
+            setSuccessorListLength( replicationFactor );
+        }
+        this.replicationFactor = replicationFactor;
+    }
+
+
+    public int getReplicaRepairPeriod() {
+        return replicaRepairPeriod;
+    }
+
+
+    /**
+     * Sets how often the periodic stabilization of a peer repairs its replicas.
+     *
+     * @param replicaRepairPeriod number of stabilizations between two repairs, at least 1
+     */
+    public void setReplicaRepairPeriod( int replicaRepairPeriod ) {
+        if ( replicaRepairPeriod < 1 ) {
+            throw new IllegalArgumentException( "replicaRepairPeriod must be at least 1." );
+        }
+        this.replicaRepairPeriod = replicaRepairPeriod;
+    }
+
+
+    public int getLookupCacheSize() {
+        return lookupCacheSize;
+    }
 
-        if ( Modifier.isAbstract( chordPeerClass.getModifiers() ) || chordPeerClass.isInterface() ) {
-            throw new IllegalArgumentException( "chordPeerClass must not be abstract or an interface." );
+
+    /**
+     * Sets the number of resolved lookups every peer caches. A cached lookup serves all keys of the ring sector of its resulting node without routing, until that node's predecessor or successor is set. Hits, misses and saved messages are counted in the {@link #getStatistics() statistics}. Only peers created afterwards are affected.
+     *
+     * @param lookupCacheSize maximum number of cached lookups per peer; 0 disables the caches
+     */
+    public void setLookupCacheSize( int lookupCacheSize ) {
+        if ( lookupCacheSize < 0 ) {
+            throw new IllegalArgumentException( "lookupCacheSize must not be negative." );
+        }
+        this.lookupCacheSize = lookupCacheSize;
+    }
+
+
+    public boolean isOracleRouting() {
+        return oracleRouting;
+    }
+
+
+    /**
+     * Sets whether lookups are resolved directly by the {@link #getRingIndex() ring index}, i.e., without forwarding any messages between peers. This gives the baseline of always correct, zero-hop routing to compare the real routing against.
+     *
+     * @param oracleRouting true to bypass routing
+     */
+    public void setOracleRouting( boolean oracleRouting ) {
+        this.oracleRouting = oracleRouting;
+    }
+
+
+    /**
+     * Builds a stable ring without incremental joins: the peers are created and hashed in parallel, sorted by their hash and linked to their predecessors and successor lists directly. Then every finger table is computed in one sweep over the sorted ring per finger index. The result equals a ring built by joins, stabilized until every successor pointer is correct, and with all fingers fixed. No messages are passed.
+     * <p>
+     * Only supported for empty networks of {@link ChordPeerImpl} peers. Peers with equal hashes are placed next to each other in an arbitrary order.
+     *
+     * @param count number of peers
+     * @param prefix prefix of the node ids, which are numbered from 0
+     * @param useSuccessorsOnly passed to the created peers
+     * @return the created peers in ring order, i.e., sorted by their hash
+     * @throws IllegalStateException if the network is not empty or does not consist of ChordPeerImpl peers
+     */
+    public List<ChordPeerImpl> bulkLoad( final int count, final String prefix, final boolean useSuccessorsOnly ) {
+        if ( peerFactory != PeerFactory.CHORD_PEER_IMPL ) {
+            throw new IllegalStateException( "Bulk loading is only supported for ChordPeerImpl peers." );
+        }
+        if ( getNumberOfPeers() > 0 ) {
+            throw new IllegalStateException( "Bulk loading is only supported for empty networks." );
         }
 
-        boolean useSuccessorConstructor;
-        try {
-            chordPeerClass.getConstructor( Network.class, String.class, boolean.class );
-            useSuccessorConstructor = true;
-        } catch ( NoSuchMethodException e ) {
-            try {
-                chordPeerClass.getConstructor( Network.class, String.class );
-                useSuccessorConstructor = false;
-            } catch ( NoSuchMethodException e1 ) {
-                throw new IllegalArgumentException( "The provided implementation of ChordPeerNode does neither have an constructor with the parameters 'Network, String, boolean' not with the parameters 'Network, String'", e1 );
+        final ChordPeerImpl[] ring = new ChordPeerImpl[count];
+        IntStream.range( 0, count ).parallel().forEach( new IntConsumer() {
+            @Override
+            public void accept( int i ) {
+                ring[i] = new ChordPeerImpl( ChordNetwork.this, prefix + i, useSuccessorsOnly, false );
             }
+        } );
+        Arrays.parallelSort( ring, new Comparator<ChordPeerImpl>() {
+            @Override
+            public int compare( ChordPeerImpl a, ChordPeerImpl b ) {
+                return Long.compare( a.n, b.n );
+            }
+        } );
+
+        final int r = Math.min( successorListLength, Math.max( 1, count - 1 ) );
+        IntStream.range( 0, count ).parallel().forEach( new IntConsumer() {
+            @Override
+            public void accept( int i ) {
+                ChordPeerImpl[] successors = new ChordPeerImpl[r];
+                for ( int j = 0; j < r; j++ ) {
+                    successors[j] = ring[(i + 1 + j) % count];
+                }
+                ring[i].wire( ring[(i + count - 1) % count], successors );
+            }
+        } );
+
+        final long[] hashes = new long[count];
+        for ( int i = 0; i < count; i++ ) {
+            hashes[i] = ring[i].n;
         }
+        IntStream.range( 0, getNumberOfBits() ).parallel().forEach( new IntConsumer() {
+            @Override
+            public void accept( int k ) {
+                fixFingers( ring, hashes, k );
+            }
+        } );
 
-        this.chordPeerClass = chordPeerClass;
-        this.useSuccessorConstructor = useSuccessorConstructor;
+        for ( ChordPeerImpl peer : ring ) {
+            addPeer( peer );
+            stabilizationScheduler.schedule( peer );
+        }
+        return Arrays.asList( ring );
     }
 
 
-    @Override
-    final void arrangeOverlayStructure() {
-        /* This method does not do anything, as Network nodes keep the network structure intact automatically. */
+    /**
+     * Writes a snapshot of the ring to a file, which is overwritten: the node ids, the predecessor, successor list and finger pointers, and the data items and replicas of all peers. The ring should not change while it is written, e.g., stabilization should be paused, otherwise the snapshot mixes states of different times.
+     * <p>
+     * Only supported for networks of {@link ChordPeerImpl} peers.
+     *
+     * @param file the file
+     * @return the number of peers written
+     * @throws IOException if the file cannot be written
+     * @throws IllegalStateException if the network does not consist of ChordPeerImpl peers
+     * @see #restoreSnapshot(File)
+     */
+    public int writeSnapshot( File file ) throws IOException {
+        return RingSnapshot.write( this, file );
     }
 
 
-    @Override
-    public PeerNode createPeer( String id, boolean useSuccessorsOnly ) {
-        try {
-            if ( useSuccessorConstructor ) {
-                return chordPeerClass.getConstructor( Network.class, String.class, boolean.class ).newInstance( this, id, useSuccessorsOnly );
-            } else {
-                return chordPeerClass.getConstructor( Network.class, String.class ).newInstance( this, id );
+    /**
+     * Restores a ring from a snapshot written by {@link #writeSnapshot(File)}, without any joins, stabilization or fixing of fingers. The peers are created, linked and filled with their data items and replicas in one pass over the file. No messages are passed.
+     * <p>
+     * Only supported for empty networks of {@link ChordPeerImpl} peers, with the number of bits of the snapshot.
+     *
+     * @param file the file
+     * @return the restored peers in ring order, i.e., sorted by their hash
+     * @throws IOException if the file cannot be read or is no snapshot of a network with this number of bits
+     * @throws IllegalStateException if the network is not empty or does not consist of ChordPeerImpl peers
+     */
+    public List<ChordPeerImpl> restoreSnapshot( File file ) throws IOException {
+        if ( peerFactory != PeerFactory.CHORD_PEER_IMPL ) {
+            throw new IllegalStateException( "Restoring snapshots is only supported for ChordPeerImpl peers." );
+        }
+        if ( getNumberOfPeers() > 0 ) {
+            throw new IllegalStateException( "Restoring snapshots is only supported for empty networks." );
+        }
+
+        ChordPeerImpl[] ring = RingSnapshot.read( this, file );
+        for ( ChordPeerImpl peer : ring ) {
+            addPeer( peer );
+            stabilizationScheduler.schedule( peer );
+        }
+        return Arrays.asList( ring );
+    }
+
+
+    /**
+     * Sets finger k of every peer of a sorted ring to the successor of its start, in one sweep over the ring. The starts n + 2^k grow with the position of the peer, so the successor is searched for by a pointer which only moves forward, and at most twice around the ring. Position p of the pointer stands for peer p mod count, whose hash is increased by 2^m for every time the pointer went around the ring.
+     *
+     * @param ring the peers sorted by their hash
+     * @param hashes the hashes of the peers
+     * @param k the index of the finger
+     */
+    private void fixFingers( ChordPeerImpl[] ring, long[] hashes, int k ) {
+        final int count = ring.length;
+        final long size = 1L << getNumberOfBits();
+        int p = 0;
+        for ( int i = 0; i < count; i++ ) {
+            // the start without reduction modulo 2^m, so that it grows with i
+            long start = hashes[i] + (1L << k);
+            while ( unrolledHash( hashes, p, size ) < start ) {
+                p++;
             }
-        } catch ( InstantiationException | InvocationTargetException | IllegalAccessException | NoSuchMethodException e ) {
-            throw new RuntimeException( e );
+            ring[i].finger.setNode( k, ring[p % count] );
         }
     }
+
+
+    private static long unrolledHash( long[] hashes, int p, long size ) {
+        return hashes[p % hashes.length] + (p / hashes.length) * size;
+    }
+
+
+    @Override
+    public PeerNode createPeer( String id, boolean useSuccessorsOnly ) {
+        return peerFactory.create( this, id, useSuccessorsOnly );
+    }
 }
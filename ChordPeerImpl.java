@@ -4,7 +4,20 @@
 
 package ch.unibas.dmi.dbis.fds.p2p;
 
-import java.util.Timer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ChordPeerImpl extends ChordPeerNode {
 
@@ -22,17 +35,51 @@ public class ChordPeerImpl extends ChordPeerNode {
      * TRUE if only using successors (simple, linear case). FALSE if complete implementation. This setting should probably conditionally enable or disable some behaviour. ;-)
      */
     private final boolean useSuccessorsOnly;
-    
+
+    /**
+     * FALSE once this node has left or failed. Other nodes may still hold references to it in their finger tables and successor lists until they fix them.
+     */
+    private volatile boolean alive = true;
+
+    /**
+     * The first r successors in the chord ring, starting with the immediate successor (r is configured at the network). Refreshed by stabilize(). The array is replaced, never modified.
+     */
+    private volatile ChordPeerImpl[] successorList = new ChordPeerImpl[0];
+
+    /**
+     * Copies of the data items of the predecessors this node is a replica of, see {@link ChordNetwork#setReplicationFactor(int)}. Kept apart from the local data, so that they are not handed over on joins and leaves.
+     */
+    final LocalStore replicas;
+
+    /**
+     * Keys of the local data items stored since the last repair of the replicas, see {@link #repairReplicas()}. Empty unless the items are replicated.
+     */
+    private final Set<String> changedKeys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The replica nodes at the last repair of the replicas, which hold copies of all local data items but the changed ones. Only accessed by {@link #repairReplicas()}.
+     */
+    private List<ChordPeerImpl> repairedReplicas = Collections.emptyList();
+
+    /**
+     * The first and the k-th predecessor at the last repair of the replicas, which bound the copies kept by this node. Only accessed by {@link #repairReplicas()}.
+     */
+    private ChordPeerImpl repairedFirst, repairedLast;
+
+    /**
+     * Keys of the copies received since the last repair of the replicas. As long as the predecessors stay the same, only these need to be sorted out.
+     */
+    private final Set<String> receivedKeys = ConcurrentHashMap.newKeySet();
+
     /**
-     * The interval in milliseconds for the node stabilizing itself
-     * 
+     * Incremented whenever the predecessor or the successor is set, so that cached lookups resolving to this node can be checked for being outdated.
      */
-    private int stabilizeInterval = 2000; // Defaults to 2000
-    
+    private final AtomicInteger pointerVersion = new AtomicInteger();
+
     /**
-     * The timer used to manage self-stabilization
+     * Lookups resolved by this node; null if the network does not cache lookups.
      */
-    private Timer stabilizeTimer;
+    private final LookupCache lookupCache;
 
 
     /**
@@ -42,10 +89,29 @@ public class ChordPeerImpl extends ChordPeerNode {
      * @param nodeID the node id
      */
     public ChordPeerImpl( Network network, String nodeID, boolean useSuccessorsOnly ) {
+        this( network, nodeID, useSuccessorsOnly, true );
+    }
+
+
+    /**
+     * Instantiates a new chord peer, which optionally joins the network.
+     *
+     * @param network the network
+     * @param nodeID the node id
+     * @param join if false, the peer is neither added to the network nor linked to other peers; used by {@link ChordNetwork#bulkLoad(int, String, boolean)}
+     */
+    ChordPeerImpl( Network network, String nodeID, boolean useSuccessorsOnly, boolean join ) {
         super( network, nodeID, useSuccessorsOnly );
 
         this.useSuccessorsOnly = useSuccessorsOnly;
         finger = new FingerTable<ChordPeerImpl>( this, m );
+        replicas = network.getLocalStoreFactory().create( network, nodeID + "-replicas" );
+        int cacheSize = ((ChordNetwork) network).getLookupCacheSize();
+        lookupCache = cacheSize > 0 ? new LookupCache( cacheSize, m, network.getStatistics() ) : null;
+        if ( !join ) {
+            predecessor = this;
+            return;
+        }
 
 		/*
 		 * We defer adding ourselves to the network until *after* we have retrieved a node from the existing network.
@@ -63,7 +129,8 @@ public class ChordPeerImpl extends ChordPeerNode {
      * @param newSuccessor the new successor
      */
     private void setSuccessor( ChordPeerImpl newSuccessor ) {
-        finger.get( 0 ).setNode( newSuccessor );
+        finger.setNode( 0, newSuccessor );
+        pointerVersion.incrementAndGet();
     }
 
 
@@ -76,7 +143,116 @@ public class ChordPeerImpl extends ChordPeerNode {
         network.logPassedMessage( Message.MessageType.CHORD_GET_SUCCESSOR, origin, this );
         network.logPassedMessage( Message.MessageType.CHORD_GET_SUCCESSOR_RESPONSE, this, origin );
 
-        return finger.get( 0 ).getNode();
+        ChordPeerImpl successor = finger.getNode( 0 );
+        if ( successor != null && !successor.alive ) {
+            // the successor failed or left: bridge it with the first live entry of the successor list
+            successor = firstLiveSuccessor();
+            setSuccessor( successor );
+        }
+        return successor;
+    }
+
+
+    /**
+     * Returns the first live node of the successor list. If none of them is alive, the closest live finger is used, and if there is none either, this node.
+     *
+     * @return the first live successor
+     */
+    private ChordPeerImpl firstLiveSuccessor() {
+        for ( ChordPeerImpl s : successorList ) {
+            if ( s.alive && s != this ) {
+                return s;
+            }
+        }
+        for ( int i = 0; i < m; i++ ) {
+            ChordPeerImpl s = finger.getNode( i );
+            if ( s != null && s.alive && s != this ) {
+                return s;
+            }
+        }
+        return this;
+    }
+
+
+    /**
+     * Links this node to its ring neighbours directly, without passing any messages. The finger table is not touched.
+     *
+     * @param predecessor the predecessor
+     * @param successorList the successor list, starting with the immediate successor
+     */
+    void wire( ChordPeerImpl predecessor, ChordPeerImpl[] successorList ) {
+        addConnection( predecessor );
+        this.predecessor = predecessor;
+        this.successorList = successorList;
+        pointerVersion.incrementAndGet();
+    }
+
+
+    /**
+     * Gets the successor list without passing any messages, e.g., to write a snapshot of the ring.
+     *
+     * @return the successor list, which must not be modified
+     */
+    ChordPeerImpl[] peekSuccessorList() {
+        return successorList;
+    }
+
+
+    boolean isUsingSuccessorsOnly() {
+        return useSuccessorsOnly;
+    }
+
+
+    /**
+     * Gets the version of the pointers of this node, which changes whenever its predecessor or successor is set.
+     *
+     * @return the pointer version
+     */
+    int getPointerVersion() {
+        return pointerVersion.get();
+    }
+
+
+    /**
+     * Gets the successor list of this node.
+     *
+     * @param origin the origin
+     * @return the successor list, which must not be modified
+     */
+    private ChordPeerImpl[] getSuccessorList( PeerNode origin ) {
+        network.logPassedMessage( Message.MessageType.CHORD_GET_SUCCESSOR_LIST, origin, this );
+        network.logPassedMessage( Message.MessageType.CHORD_GET_SUCCESSOR_LIST_RESPONSE, this, origin );
+
+        return successorList;
+    }
+
+
+    /**
+     * Rebuilds the successor list from the successor and its own successor list.
+     */
+    private void updateSuccessorList() {
+        int r = ((ChordNetwork) network).getSuccessorListLength();
+        ChordPeerImpl successor = getSuccessor( this );
+        ChordPeerImpl[] current = successorList;
+        if ( r == 1 || successor == this ) {
+            if ( current.length != 1 || current[0] != successor ) {
+                successorList = new ChordPeerImpl[] { successor };
+            }
+            return;
+        }
+
+        List<ChordPeerImpl> list = new ArrayList<ChordPeerImpl>( r );
+        list.add( successor );
+        for ( ChordPeerImpl s : successor.getSuccessorList( this ) ) {
+            if ( list.size() >= r || s == this ) {
+                // we went once around the ring
+                break;
+            }
+            if ( s.alive && !list.contains( s ) ) {
+                list.add( s );
+            }
+        }
+        successorList = list.toArray( new ChordPeerImpl[list.size()] );
     }
 
 
@@ -94,6 +270,16 @@ public class ChordPeerImpl extends ChordPeerNode {
     }
 
 
+    /**
+     * Checks whether this node is still part of the network.
+     *
+     * @return false if this node has left the network
+     */
+    public final boolean isAlive() {
+        return alive;
+    }
+
+
     @Override
     public PeerNode getChordPredecessor() {
         return predecessor;
@@ -116,11 +302,12 @@ public class ChordPeerImpl extends ChordPeerNode {
         network.logPassedMessage( Message.MessageType.CHORD_SET_PREDECESSOR, origin, this );
 		
 		/* connection handling, let the infrastructure know about the connections we have */
+        this.addConnection( newPredecessor );
         if ( predecessor != null ) {
-            this.removeConnection( predecessor.nodeID );
+            this.removeConnection( predecessor );
         }
-        this.addConnection( newPredecessor.nodeID );
         predecessor = newPredecessor;
+        pointerVersion.incrementAndGet();
 
         network.logPassedMessage( Message.MessageType.CHORD_SET_PREDECESSOR_RESPONSE, this, origin );
     }
@@ -166,7 +353,15 @@ public class ChordPeerImpl extends ChordPeerNode {
         
         while (! network.isHashElementOf(id, ret.n, ret.getSuccessor(this).n, false, true))
         {
-            ret = ret.closestPrecedingFinger(this, id);
+            ChordPeerImpl next = ret.closestPrecedingFinger(this, id);
+            
+            // If no live finger of ret precedes the id any more (e.g., because of failed nodes), ret is the best guess
+            if (next == ret)
+            {
+                break;
+            }
+            ret = next;
+            traceHop(ret);
         }
         
 		/* END IMPLEMENTATION */
@@ -176,6 +371,19 @@ public class ChordPeerImpl extends ChordPeerNode {
     }
 
 
+    /**
+     * Records in the trace of the running lookup, if any, that the query was forwarded to a node.
+     *
+     * @param node the node
+     */
+    private static void traceHop( ChordPeerImpl node ) {
+        LookupTrace trace = LookupTrace.active();
+        if ( trace != null ) {
+            trace.visit( node );
+        }
+    }
+
+
     /**
      * Returns the closest finger preceding id. Figure 4, page 5
      *
@@ -186,16 +394,17 @@ public class ChordPeerImpl extends ChordPeerNode {
     protected final ChordPeerImpl closestPrecedingFinger( PeerNode origin, long id ) {
         ChordPeerImpl ret = null;
         network.logPassedMessage( Message.MessageType.CHORD_CLOSEST_PRECEDING_FINGER, origin, this );
+        LookupTrace trace = LookupTrace.active();
+        if ( trace != null ) {
+            trace.countClosestPrecedingFinger();
+        }
 
         ret = this;
-        for ( int i = m - 1; i >= 0; --i ) {
-            ChordPeerImpl node = finger.get( i ).getNode();
-            if ( node == null ) {
-                continue;
-            }
-            long hash = node.n;
-            if ( network.isHashElementOf( hash, n, id, false, false ) ) {
-                ret = finger.get( i ).getNode();
+        for ( int i = finger.precedingIndex( m - 1, id ); i >= 0; i = finger.precedingIndex( i - 1, id ) ) {
+            ChordPeerImpl node = finger.getNode( i );
+            // setNode() stores the hash and the node separately, so a concurrent setNode() may have replaced the hash the entry was selected by, but not the node yet
+            if ( node != null && node.alive && finger.precedes( node.n, id ) ) {
+                ret = node;
                 break;
             }
         }
@@ -217,16 +426,118 @@ public class ChordPeerImpl extends ChordPeerNode {
             if ( useSuccessorsOnly ) {
                 stabilize( this );
             }
-            // TODO: move keys
+            takeOverDataItems( getSuccessor( this ) );
         } else {
             // null if we're the first node out there.
             setSuccessor( this );
         }
         
         // At this point the node has joined the network so it must now begin to self-stabilize every so often
-        // as determined by stabilizeInterval
-        this.stabilizeTimer = new Timer();
-        stabilizeTimer.scheduleAtFixedRate(new StabilizeTimerTask(this), 0, stabilizeInterval);
+        // as determined by the stabilization interval of the network's shared scheduler
+        ((ChordNetwork) network).getStabilizationScheduler().schedule(this);
+    }
+
+
+    /**
+     * Moves the data items this node has become responsible for from its successor, after joining or after the successor learned about this node. These are all items of the successor which do not lie within (n, successor]. The items are transferred in one bulk message.
+     * <p>
+     * While the ring is not stabilized, the successor may hand over items which belong to nodes before us. These are passed on along the predecessor pointers until they reach a node responsible for them.
+     *
+     * @param successor the successor of this node
+     */
+    private void takeOverDataItems( ChordPeerImpl successor ) {
+        ChordPeerImpl node = this;
+        ChordPeerImpl from = successor;
+        for ( int hops = network.getNumberOfPeers(); hops >= 0 && node != from && node.alive; hops-- ) {
+            network.logPassedMessage( Message.MessageType.CHORD_TRANSFER_KEYS, node, from );
+
+            Map<String, String> items = from.extractDataItems( from.n, node.n );
+            node.storeDataItems( items );
+            node.markChanged( items.keySet() );
+            network.getStatistics().addTransferredItems( items.size() );
+
+            network.logPassedMessage( Message.MessageType.CHORD_TRANSFER_KEYS_RESPONSE, from, node );
+
+            if ( items.isEmpty() ) {
+                break;
+            }
+            from = node;
+            node = node.predecessor;
+        }
+    }
+
+
+    /**
+     * Gracefully leaves the network: stops stabilizing, hands all data items over to the successor and links predecessor and successor to each other.
+     */
+    public void leave() {
+        alive = false;
+        ((ChordNetwork) network).getStabilizationScheduler().cancel( this );
+        network.removePeer( this );
+
+        ChordPeerImpl successor = getSuccessor( this );
+        ChordPeerImpl pre = predecessor;
+        if ( successor == this ) {
+            // we were the last node out there.
+            releaseStores();
+            return;
+        }
+        if ( pre == this ) {
+            // not stabilized yet, so we know no better predecessor for our successor
+            pre = successor;
+        }
+
+        network.logPassedMessage( Message.MessageType.CHORD_LEAVE, this, successor );
+        Map<String, String> items = localData.extractAll();
+        successor.storeDataItems( items );
+        successor.markChanged( items.keySet() );
+        network.getStatistics().addTransferredItems( items.size() );
+        if ( successor.predecessor == this ) {
+            successor.setPredecessor( this, pre );
+        }
+        network.logPassedMessage( Message.MessageType.CHORD_LEAVE_RESPONSE, successor, this );
+
+        // our items may include some which belong to the predecessor, if we had not stabilized yet
+        ChordPeerImpl successorPredecessor = successor.predecessor;
+        if ( successorPredecessor != successor && successorPredecessor.alive ) {
+            successorPredecessor.takeOverDataItems( successor );
+        }
+
+        network.logPassedMessage( Message.MessageType.CHORD_LEAVE, this, pre );
+        // not getSuccessor(), which would bridge us already, as we are not alive any more, possibly past our successor
+        network.logPassedMessage( Message.MessageType.CHORD_GET_SUCCESSOR, this, pre );
+        network.logPassedMessage( Message.MessageType.CHORD_GET_SUCCESSOR_RESPONSE, pre, this );
+        if ( pre.finger.getNode( 0 ) == this ) {
+            pre.setSuccessor( successor );
+        }
+        network.logPassedMessage( Message.MessageType.CHORD_LEAVE_RESPONSE, pre, this );
+
+        releaseStores();
+    }
+
+
+    /**
+     * Releases the local stores once this node is gone, e.g., the files of memory-mapped stores.
+     */
+    private void releaseStores() {
+        localData.release();
+        replicas.release();
+    }
+
+
+    /**
+     * Fails without notice, i.e., crashes: the node stops stabilizing and disappears from the network, and its data items are lost. Other nodes have to bridge it via their successor lists and repair their pointers by stabilizing.
+     */
+    public void fail() {
+        alive = false;
+        ((ChordNetwork) network).getStabilizationScheduler().cancel( this );
+        network.removePeer( this );
+        releaseStores();
+
+        EventSink events = network.getEventSink();
+        if ( events.isEnabled( EventSink.Level.INFO ) ) {
+            events.peerFailed( this );
+        }
     }
 
 
@@ -242,7 +553,8 @@ public class ChordPeerImpl extends ChordPeerNode {
         
         ChordPeerImpl x = this.getSuccessor(this).predecessor;
         
-        if(network.isHashElementOf(x.n, this.n, this.getSuccessor(this).n, false, false))
+        // A failed node is never adopted as successor
+        if(x.alive && network.isHashElementOf(x.n, this.n, this.getSuccessor(this).n, false, false))
         {
             this.setSuccessor(x);
         }
@@ -251,6 +563,8 @@ public class ChordPeerImpl extends ChordPeerNode {
         
 		/* END IMPLEMENTATION */
 
+        updateSuccessorList();
+
         network.logPassedMessage( Message.MessageType.CHORD_STABILIZE_RESPONSE, this, origin );
     }
 
@@ -269,14 +583,21 @@ public class ChordPeerImpl extends ChordPeerNode {
         
         // Note: Here we check whether the predecessor node is equal to this node, instead of checking whether it is null as is specified in the Chord paper
         // We do this because our join() function has been modified to set the predecessor to the new node to itself, instead of null
-        if (pre == this || network.isHashElementOf(n1.n, pre.n, this.n, false, false))
+        // A failed predecessor is replaced by any node that notifies us
+        if (pre == this || !pre.alive || network.isHashElementOf(n1.n, pre.n, this.n, false, false))
         {
             this.setPredecessor(this, n1);
             
+            // The new predecessor is responsible for all our items which are not within (n1, n] any more
+            n1.takeOverDataItems(this);
+            
             // We need to immediately call stabilize() on the old predecessor node. This will ensure that its successor pointer
             // is immediately updated. Also, it will cause the predecessor pointer of the newly added node to be updated as well
             // This satisfies the extra requirements that we have due to the changes in the join() function
-            pre.stabilize(this);
+            if (pre.alive)
+            {
+                pre.stabilize(this);
+            }
         }
         
 		/* END IMPLEMENTATION */
@@ -294,8 +615,8 @@ public class ChordPeerImpl extends ChordPeerNode {
         // So we simply just update the finger table row(s) given by these parameters
         for (int i = fromInclusive; i <= toInclusive; i++)
         {
-            ChordPeerImpl newNode = this.findSuccessor(this, finger.get(i).getStart());
-            finger.get(i).setNode(newNode);
+            ChordPeerImpl newNode = this.findSuccessor(this, finger.getStart(i));
+            finger.setNode(i, newNode);
         }
         
 		/* END IMPLEMENTATION */
@@ -312,7 +633,7 @@ public class ChordPeerImpl extends ChordPeerNode {
         //log incoming query message
         network.logPassedMessage( Message.MessageType.GET, originOfQuery, this );
 
-        String resData = localData.get( key );
+        String resData = readDataItem( key );
 
         //log result of query message
         network.logPassedMessage( Message.MessageType.GET_RESPONSE, this, originOfQuery );
@@ -322,6 +643,42 @@ public class ChordPeerImpl extends ChordPeerNode {
 
     @Override
     public PeerNode lookupNodeForItem( PeerNode originOfQuery, String key ) {
+        // a correct successor walk visits every other node at most once
+        return lookupNodeForItem( originOfQuery, key, Math.max( 1, network.getNumberOfPeers() ) );
+    }
+
+
+    /**
+     * Determines the node where the data is/should be located.
+     *
+     * @param originOfQuery is null if the query comes from client otherwise the first peer in the network
+     * @param key of data item
+     * @param maxHops the maximum number of times the query may be forwarded when routing via successors only
+     * @return the node responsible for the key
+     * @throws IllegalStateException if routing via successors only exceeds maxHops, e.g., because the ring is broken
+     */
+    public PeerNode lookupNodeForItem( PeerNode originOfQuery, String key, int maxHops ) {
+        if ( LookupTrace.active() != null ) {
+            // traced by traceLookup()
+            return routeLookup( originOfQuery, key, maxHops );
+        }
+        // every lookup feeds the lookup statistics of the network, without recording its path
+        LookupTrace trace = new LookupTrace( this, key, false );
+        trace.start();
+        PeerNode node = null;
+        try {
+            node = routeLookup( originOfQuery, key, maxHops );
+            return node;
+        } finally {
+            trace.stop( node );
+            if ( node != null ) {
+                network.getLookupStatistics().record( trace );
+            }
+        }
+    }
+
+
+    private PeerNode routeLookup( PeerNode originOfQuery, String key, int maxHops ) {
         PeerNode node = null;
         //log incoming query message
         network.logPassedMessage( Message.MessageType.LOOKUP, originOfQuery, this );
@@ -332,29 +689,24 @@ public class ChordPeerImpl extends ChordPeerNode {
         // Obtain the hash value of the key
         long keyID = network.hash(key);
         
+        LookupCache cache = ((ChordNetwork) network).isOracleRouting() ? null : lookupCache;
+        // only the messages of this lookup, which runs with an active trace, see lookupNodeForItem()
+        LookupTrace trace = LookupTrace.active();
+        long messagesBefore = cache == null ? 0 : trace.getMessages();
+        ChordPeerImpl cached = cache == null ? null : cache.get( keyID );
+        
+        if ( ((ChordNetwork) network).isOracleRouting() ) {
+            // resolve without any messages, as a baseline for comparison
+            node = network.getRingIndex().ownerOf( keyID );
+        }
+        else if ( cached != null ) {
+            // resolved by an earlier lookup of the same ring sector, without routing
+            node = cached;
+        }
         // Check whether we should use the successor only method for query routing
-        if (this.useSuccessorsOnly) // Use only the successor node
+        else if (this.useSuccessorsOnly) // Use only the successor node
         {
-            // If the hash value of the key is equal to this node, then this node is responsible
-            if (keyID == this.n)
-            {
-                node = this;
-                System.out.println( "lookupNodeForItem(): successor method - item with hash " + keyID + " determined to belong to node with ID " + this.nodeID + " and hash " + this.n);
-            }
-            
-            // Else if the hash value of the key is in the interval between this node (exclusive) and the successor
-            // node, then the successor node is "responsible"
-            else if (network.isHashElementOf(keyID, this.n, this.getSuccessor(this).n, false, true))
-            {
-                node = this.getSuccessor(this);
-                System.out.println( "lookupNodeForItem(): successor method - item with hash " + keyID + " determined to belong to node with ID " + node.nodeID + " and hash " + ((ChordPeerImpl)node).n);
-            }
-            
-            // Else the "responsible" node is further ahead
-            else
-            {
-                node = this.getSuccessor(this).lookupNodeForItem(this, key);
-            }
+            node = lookupViaSuccessors(keyID, maxHops);
         }
         else // Use the finger table
         {
@@ -364,7 +716,6 @@ public class ChordPeerImpl extends ChordPeerNode {
             if (network.isHashElementOf(keyID, predecessorID, this.n, false, true))
             {
                 node = this;
-                System.out.println( "lookupNodeForItem(): finger table method - item with hash " + keyID + " determined to belong to node with ID " + this.nodeID + " and hash " + this.n);
             }
             
             // Else, use the findSuccessor function to determine using the finger table which node
@@ -372,18 +723,392 @@ public class ChordPeerImpl extends ChordPeerNode {
             else
             {
                 node = this.findSuccessor(this, keyID);
-                System.out.println( "lookupNodeForItem(): finger table method - item with hash " + keyID + " determined to belong to node with ID " + node.nodeID + " and hash " + ((ChordPeerImpl)node).n);
             }
         }
         
 		/* END IMPLEMENTATION */
 
+        if ( cache != null && cached == null ) {
+            cacheLookup( cache, (ChordPeerImpl) node, trace.getMessages() - messagesBefore );
+        }
+
+        EventSink events = network.getEventSink();
+        if ( events.isEnabled( EventSink.Level.TRACE ) ) {
+            events.lookupResolved( this, keyID, node );
+        }
+
         //log outgoing message
         network.logPassedMessage( Message.MessageType.LOOKUP_RESPONSE, this, originOfQuery );
         return node;
     }
 
 
+    /**
+     * Caches the ring sector of the node a lookup resolved to, if its predecessor is known.
+     *
+     * @param cache the lookup cache
+     * @param node the resolved node
+     * @param messages the number of messages the lookup passed
+     */
+    private static void cacheLookup( LookupCache cache, ChordPeerImpl node, long messages ) {
+        // the version is read first, so that a concurrent change of the predecessor outdates the entry instead of corrupting it
+        int version = node.pointerVersion.get();
+        ChordPeerImpl pre = node.predecessor;
+        if ( pre != node && pre.alive ) {
+            cache.put( pre.n, node, version, messages );
+        }
+    }
+
+
+    /**
+     * Routes a lookup along the successor pointers. This is done iteratively rather than by recursive calls of lookupNodeForItem(), so the lookup depth is not limited by the stack size. The passed messages are the same as with recursive forwarding: a LOOKUP message per hop on the way to the responsible node, and the LOOKUP_RESPONSE messages in reverse order on the way back.
+     *
+     * @param keyID the hash of the key
+     * @param maxHops the maximum number of times the query may be forwarded
+     * @return the node responsible for the key
+     */
+    private ChordPeerImpl lookupViaSuccessors( long keyID, int maxHops )
+    {
+        ChordPeerImpl node;
+        List<ChordPeerImpl> path = new ArrayList<ChordPeerImpl>();
+        ChordPeerImpl current = this;
+        
+        while (true)
+        {
+            ChordPeerImpl successor = current.getSuccessor(current);
+            
+            // If the hash value of the key is equal to this node, then this node is responsible
+            if (keyID == current.n)
+            {
+                node = current;
+                break;
+            }
+            
+            // Else if the hash value of the key is in the interval between this node (exclusive) and the successor
+            // node, then the successor node is "responsible"
+            if (network.isHashElementOf(keyID, current.n, successor.n, false, true))
+            {
+                node = successor;
+                break;
+            }
+            
+            // Else the "responsible" node is further ahead, so forward the query to the successor
+            if (path.size() >= maxHops)
+            {
+                throw new IllegalStateException( "Lookup of hash " + keyID + " from " + this.nodeID + " exceeded " + maxHops + " hops" );
+            }
+            network.logPassedMessage( Message.MessageType.LOOKUP, current, successor );
+            path.add(current);
+            current = successor;
+            traceHop(current);
+        }
+        
+        // Send the responses back along the path
+        for (int i = path.size() - 1; i >= 0; i--)
+        {
+            network.logPassedMessage( Message.MessageType.LOOKUP_RESPONSE, current, path.get(i) );
+            current = path.get(i);
+        }
+        
+        return node;
+    }
+
+
+    /**
+     * Determines a node holding a data item or a copy of it, if the network replicates data items. The query is routed towards the key like a lookup, but ends at the first node on the way which holds the item. Otherwise, the predecessor of the key, whose successor list contains all replicas, forwards it to one of them at random, which spreads the reads of a key over its replicas. Without replication, this is the same as lookupNodeForItem().
+     *
+     * @param originOfQuery is null if the query comes from client otherwise the first peer in the network
+     * @param key of data item
+     * @return a node whose getDataItem() serves the item, if it is stored
+     * @throws IllegalStateException if the query is forwarded more often than there are peers, e.g., because the ring is broken
+     */
+    public PeerNode lookupReplicaForItem( PeerNode originOfQuery, String key ) {
+        int k = ((ChordNetwork) network).getReplicationFactor();
+        if ( k <= 1 ) {
+            return lookupNodeForItem( originOfQuery, key );
+        }
+        if ( LookupTrace.active() != null ) {
+            // traced by the caller
+            return routeToReplica( originOfQuery, key, k );
+        }
+        LookupTrace trace = new LookupTrace( this, key, false );
+        trace.start();
+        PeerNode node = null;
+        try {
+            node = routeToReplica( originOfQuery, key, k );
+            return node;
+        } finally {
+            trace.stop( node );
+            if ( node != null ) {
+                network.getLookupStatistics().record( trace );
+            }
+        }
+    }
+
+
+    private PeerNode routeToReplica( PeerNode originOfQuery, String key, int k ) {
+        network.logPassedMessage( Message.MessageType.LOOKUP, originOfQuery, this );
+
+        long keyID = network.hash( key );
+        int maxHops = Math.max( 1, network.getNumberOfPeers() );
+        List<ChordPeerImpl> path = new ArrayList<ChordPeerImpl>();
+        ChordPeerImpl node = this;
+        while ( !node.holdsDataItem( key ) ) {
+            ChordPeerImpl successor = node.getSuccessor( node );
+            boolean last = network.isHashElementOf( keyID, node.n, successor.n, false, true );
+            ChordPeerImpl next;
+            if ( last ) {
+                next = node.randomReplica( successor, k );
+            } else if ( useSuccessorsOnly ) {
+                next = successor;
+            } else {
+                next = node.closestPrecedingFinger( node, keyID );
+                if ( next == node ) {
+                    next = successor;
+                }
+            }
+            if ( path.size() >= maxHops ) {
+                throw new IllegalStateException( "Lookup of a replica of hash " + keyID + " from " + nodeID + " exceeded " + maxHops + " hops" );
+            }
+            network.logPassedMessage( Message.MessageType.LOOKUP, node, next );
+            path.add( node );
+            node = next;
+            traceHop( node );
+            if ( last ) {
+                break;
+            }
+        }
+
+        // send the responses back along the path
+        ChordPeerImpl current = node;
+        for ( int i = path.size() - 1; i >= 0; i-- ) {
+            network.logPassedMessage( Message.MessageType.LOOKUP_RESPONSE, current, path.get( i ) );
+            current = path.get( i );
+        }
+
+        EventSink events = network.getEventSink();
+        if ( events.isEnabled( EventSink.Level.TRACE ) ) {
+            events.lookupResolved( this, keyID, node );
+        }
+
+        network.logPassedMessage( Message.MessageType.LOOKUP_RESPONSE, this, originOfQuery );
+        return node;
+    }
+
+
+    /**
+     * Reads a data item stored at this node, or the copy of it if this node is a replica of the item.
+     *
+     * @param key of data item
+     * @return the value, or null if neither the item nor a copy is stored here
+     */
+    private String readDataItem( String key ) {
+        String value = localData.get( key );
+        return value != null ? value : replicas.get( key );
+    }
+
+
+    /**
+     * Checks whether this node holds a data item, either as the responsible node or as a replica.
+     *
+     * @param key of data item
+     * @return true if the item or a copy of it is stored here
+     */
+    private boolean holdsDataItem( String key ) {
+        return localData.containsKey( key ) || replicas.containsKey( key );
+    }
+
+
+    /**
+     * Picks one of the replicas of the keys between this node and its successor at random: the successor or one of the next k - 1 live nodes of the successor list.
+     *
+     * @param successor the successor of this node
+     * @param k the replication factor
+     * @return the chosen replica
+     */
+    private ChordPeerImpl randomReplica( ChordPeerImpl successor, int k ) {
+        List<ChordPeerImpl> candidates = new ArrayList<ChordPeerImpl>( k );
+        candidates.add( successor );
+        for ( ChordPeerImpl s : successorList ) {
+            if ( candidates.size() >= k ) {
+                break;
+            }
+            if ( s.alive && !candidates.contains( s ) ) {
+                candidates.add( s );
+            }
+        }
+        return candidates.get( ThreadLocalRandom.current().nextInt( candidates.size() ) );
+    }
+
+
+    /**
+     * Returns the nodes which hold the replicas of the data items of this node: the first k - 1 live nodes of the successor list.
+     *
+     * @param k the replication factor
+     * @return the replica nodes, possibly fewer if the ring is small
+     */
+    private List<ChordPeerImpl> replicaNodes( int k ) {
+        List<ChordPeerImpl> nodes = new ArrayList<ChordPeerImpl>( k - 1 );
+        for ( ChordPeerImpl s : successorList ) {
+            if ( nodes.size() >= k - 1 ) {
+                break;
+            }
+            if ( s.alive && s != this && !nodes.contains( s ) ) {
+                nodes.add( s );
+            }
+        }
+        return nodes;
+    }
+
+
+    /**
+     * Copies data items stored at this node to its replica nodes, with one message per replica.
+     *
+     * @param items the data items
+     */
+    private void replicate( Map<String, String> items ) {
+        int k = ((ChordNetwork) network).getReplicationFactor();
+        if ( k <= 1 || items.isEmpty() ) {
+            return;
+        }
+        for ( ChordPeerImpl replica : replicaNodes( k ) ) {
+            network.logPassedMessage( Message.MessageType.CHORD_REPLICATE, this, replica );
+            replica.storeReplicas( items );
+            network.getStatistics().addReplicatedItems( items.size() );
+            network.logPassedMessage( Message.MessageType.CHORD_REPLICATE_RESPONSE, replica, this );
+        }
+    }
+
+
+    /**
+     * Remembers local data items which were stored since the last repair of the replicas, so that the next repair sends them to the replica nodes which held copies already. Stored items may have missed a replica, e.g., because the successor list was outdated when they were replicated.
+     *
+     * @param keys the keys of the stored items
+     */
+    private void markChanged( Collection<String> keys ) {
+        if ( ((ChordNetwork) network).getReplicationFactor() > 1 ) {
+            changedKeys.addAll( keys );
+        }
+    }
+
+
+    /**
+     * Stores copies of data items of a predecessor at this replica node.
+     *
+     * @param items the data items
+     */
+    private void storeReplicas( Map<String, String> items ) {
+        replicas.putAll( items );
+        receivedKeys.addAll( items.keySet() );
+    }
+
+
+    /**
+     * Checks the copies received since the last repair of the replicas, e.g., from a predecessor with an outdated successor list, and forgets those which are in place.
+     *
+     * @param first the predecessor
+     * @param last the k-th predecessor, or null if all copies are kept
+     * @return true if a received copy lies in (p_1, n], or outside of (p_k, p_1]
+     */
+    private boolean receivedOutside( ChordPeerImpl first, ChordPeerImpl last ) {
+        for ( Iterator<String> keys = receivedKeys.iterator(); keys.hasNext(); ) {
+            long hash = network.hash( keys.next() );
+            if ( network.isHashElementOf( hash, first.n, n, false, true ) || (last != null && !network.isHashElementOf( hash, last.n, first.n, false, true )) ) {
+                return true;
+            }
+            keys.remove();
+        }
+        return false;
+    }
+
+
+    /**
+     * Repairs the replicas after churn, run periodically by the stabilization. First, this node takes over the copies of the items it has become responsible for, e.g., because its predecessor failed. Then, it drops the copies it is no replica of any more; these lie outside of (p_k, p_1], where p_i is its i-th predecessor, which is found by following the predecessor pointers. While the predecessors stay the same, this is skipped unless a copy received since the last repair is out of place. Finally, it sends each of its replica nodes the items the replica misses or holds an outdated copy of, with one message per replica. A replica node which was one at the last repair already only gets the items stored since then; only a new replica node is compared against all local items. Thus, a repair without churn and without new items sends nothing.
+     */
+    public void repairReplicas() {
+        int k = ((ChordNetwork) network).getReplicationFactor();
+        if ( k <= 1 ) {
+            return;
+        }
+
+        ChordPeerImpl first = predecessor;
+        if ( first != this && first.alive ) {
+            ChordPeerImpl last = first;
+            for ( int i = 1; i < k && last != null; i++ ) {
+                ChordPeerImpl next = last.getPredecessor( this );
+                // an unknown or failed predecessor, or a ring of at most k nodes: keep all copies
+                last = next == last || next == this || !next.alive ? null : next;
+            }
+
+            // extracting a range hashes all copies, so it is only done when the predecessors changed or a received copy is out of place
+            if ( first != repairedFirst || last != repairedLast || receivedOutside( first, last ) ) {
+                receivedKeys.clear();
+                List<String> promoted = new ArrayList<String>();
+                for ( Map.Entry<String, String> item : replicas.extractRange( first.n, n ).entrySet() ) {
+                    if ( !localData.containsKey( item.getKey() ) ) {
+                        localData.put( item.getKey(), item.getValue() );
+                        promoted.add( item.getKey() );
+                    }
+                }
+                markChanged( promoted );
+                if ( last != null ) {
+                    replicas.extractRange( n, last.n );
+                }
+                repairedFirst = first;
+                repairedLast = last;
+            }
+        }
+
+        // a key stored while collecting is either collected or stays marked for the next repair
+        Map<String, String> changed = new TreeMap<String, String>();
+        for ( Iterator<String> keys = changedKeys.iterator(); keys.hasNext(); ) {
+            String key = keys.next();
+            keys.remove();
+            String value = localData.get( key );
+            if ( value != null ) {
+                changed.put( key, value );
+            }
+        }
+
+        List<ChordPeerImpl> replicaNodes = replicaNodes( k );
+        Map<String, String> items = null;
+        for ( ChordPeerImpl replica : replicaNodes ) {
+            Map<String, String> candidates = changed;
+            if ( !repairedReplicas.contains( replica ) ) {
+                if ( items == null ) {
+                    items = localData.snapshot();
+                }
+                candidates = items;
+            }
+            if ( candidates.isEmpty() ) {
+                continue;
+            }
+
+            network.logPassedMessage( Message.MessageType.CHORD_REPAIR_REPLICAS, this, replica );
+            Map<String, String> missing = new TreeMap<String, String>();
+            for ( Map.Entry<String, String> item : candidates.entrySet() ) {
+                if ( !item.getValue().equals( replica.replicas.get( item.getKey() ) ) ) {
+                    missing.put( item.getKey(), item.getValue() );
+                }
+            }
+            replica.storeReplicas( missing );
+            network.getStatistics().addReplicatedItems( missing.size() );
+            network.logPassedMessage( Message.MessageType.CHORD_REPAIR_REPLICAS_RESPONSE, replica, this );
+        }
+        repairedReplicas = replicaNodes;
+    }
+
+
+    /**
+     * Gets a copy of the replicas stored at this node.
+     *
+     * @return the copies of data items of other nodes, sorted by key
+     */
+    public final Map<String, String> getReplicaData() {
+        return replicas.snapshot();
+    }
+
+
     /*
      * In Network, SET requests should only be directed to the node responsible for the data.
      * Therefore, we store data only locally.
@@ -395,10 +1120,161 @@ public class ChordPeerImpl extends ChordPeerNode {
         //log save query message
         network.logPassedMessage( Message.MessageType.SET, originOfQuery, this );
 
-        //save data item at destination
+        //save data item at destination, after logging it for recovery
+        logDataItem( key, value );
         localData.put( key, value );
+        if ( ((ChordNetwork) network).getReplicationFactor() > 1 ) {
+            markChanged( Collections.singleton( key ) );
+            replicate( Collections.singletonMap( key, value ) );
+        }
 
         //log save query result message
         network.logPassedMessage( Message.MessageType.SET_RESPONSE, originOfQuery, this );
     }
+
+
+    @Override
+    public void setDataItems( PeerNode originOfQuery, Map<String, String> items ) {
+        logDataItems( items );
+        ChordPeerImpl previous = this;
+        for ( Map.Entry<ChordPeerImpl, List<String>> batch : groupByResponsibleNode( items.keySet() ).entrySet() ) {
+            ChordPeerImpl node = batch.getKey();
+
+            //log one save query message per responsible node, passed on from the previous one
+            network.logPassedMessage( Message.MessageType.SET, previous == this ? originOfQuery : previous, node );
+
+            Map<String, String> nodeItems = new TreeMap<String, String>();
+            for ( String key : batch.getValue() ) {
+                nodeItems.put( key, items.get( key ) );
+            }
+            node.storeDataItems( nodeItems );
+            node.markChanged( nodeItems.keySet() );
+            node.replicate( nodeItems );
+
+            network.logPassedMessage( Message.MessageType.SET_RESPONSE, node, originOfQuery );
+            previous = node;
+        }
+    }
+
+
+    /**
+     * Reads a batch of data items. Like getDataItem() on a node found by lookupReplicaForItem(), the items are served by the responsible node or its replicas, if the network replicates data items: each batch of keys goes to a replica of the batch chosen at random, which spreads the reads, and the keys it does not hold, e.g., because a copy was not repaired yet, are passed on to the other replicas.
+     */
+    @Override
+    public Map<String, String> getDataItems( PeerNode originOfQuery, Collection<String> keys ) {
+        int k = ((ChordNetwork) network).getReplicationFactor();
+        Map<String, String> items = new HashMap<String, String>();
+        ChordPeerImpl previous = this;
+        for ( Map.Entry<ChordPeerImpl, List<String>> batch : groupByResponsibleNode( keys ).entrySet() ) {
+            ChordPeerImpl node = batch.getKey();
+            List<ChordPeerImpl> candidates = new ArrayList<ChordPeerImpl>( k );
+            candidates.add( node );
+            if ( k > 1 ) {
+                candidates.addAll( node.replicaNodes( k ) );
+            }
+            int first = ThreadLocalRandom.current().nextInt( candidates.size() );
+
+            List<String> missing = batch.getValue();
+            for ( int i = 0; i < candidates.size() && !missing.isEmpty(); i++ ) {
+                ChordPeerImpl server = candidates.get( (first + i) % candidates.size() );
+
+                //log one query message per serving node, passed on from the previous one
+                network.logPassedMessage( Message.MessageType.GET, previous == this ? originOfQuery : previous, server );
+
+                List<String> notFound = new ArrayList<String>();
+                for ( String key : missing ) {
+                    String value = server.readDataItem( key );
+                    if ( value != null ) {
+                        items.put( key, value );
+                    } else {
+                        notFound.add( key );
+                    }
+                }
+
+                network.logPassedMessage( Message.MessageType.GET_RESPONSE, server, originOfQuery );
+                previous = server;
+                missing = notFound;
+            }
+        }
+        return items;
+    }
+
+
+    /**
+     * Determines the responsible nodes for a batch of keys. Every key is hashed once, and the keys are sorted clockwise starting after this node. Consecutive keys up to the responsible node of the first one form a batch; the responsible node of the next batch is looked up starting at the previous one. Thus, the batch is routed around the ring in one traversal, and every responsible node is visited once.
+     *
+     * @param keys the keys
+     * @return the keys per responsible node, in the order of the traversal
+     */
+    private Map<ChordPeerImpl, List<String>> groupByResponsibleNode( Collection<String> keys ) {
+        final long mask = (1L << m) - 1;
+        HashedKey[] sorted = new HashedKey[keys.size()];
+        int i = 0;
+        for ( String key : keys ) {
+            long hash = network.hash( key );
+            // distance clockwise from n + 1, so that keys equal to n (which we are responsible for) come last
+            sorted[i++] = new HashedKey( key, hash, (hash - n - 1) & mask );
+        }
+        Arrays.sort( sorted );
+
+        Map<ChordPeerImpl, List<String>> batches = new LinkedHashMap<ChordPeerImpl, List<String>>();
+        ChordPeerImpl node = null;
+        long firstHash = 0;
+        List<String> batch = null;
+        for ( HashedKey key : sorted ) {
+            if ( node == null || !network.isHashElementOf( key.hash, firstHash, node.n, true, true ) ) {
+                node = lookupResponsibleNode( node == null ? this : node, key.hash );
+                firstHash = key.hash;
+                batch = batches.get( node );
+                if ( batch == null ) {
+                    batch = new ArrayList<String>();
+                    batches.put( node, batch );
+                }
+            }
+            batch.add( key.key );
+        }
+        return batches;
+    }
+
+
+    /**
+     * Determines the node responsible for a hash, starting the search at a given node. Like lookupNodeForItem(), this follows the successor pointers or the finger tables, depending on the configuration of this node.
+     *
+     * @param start the node to start the search at
+     * @param keyID the hash
+     * @return the responsible node
+     */
+    private ChordPeerImpl lookupResponsibleNode( ChordPeerImpl start, long keyID ) {
+        if ( network.isHashElementOf( keyID, start.getPredecessor( start ).n, start.n, false, true ) ) {
+            return start;
+        }
+        if ( useSuccessorsOnly ) {
+            return start.lookupViaSuccessors( keyID, Math.max( 1, network.getNumberOfPeers() ) );
+        }
+        return start.findSuccessor( start, keyID );
+    }
+
+
+    /**
+     * A key together with its hash and its clockwise distance, used to sort batches.
+     */
+    private static final class HashedKey implements Comparable<HashedKey> {
+
+        private final String key;
+        private final long hash;
+        private final long distance;
+
+
+        private HashedKey( String key, long hash, long distance ) {
+            this.key = key;
+            this.hash = hash;
+            this.distance = distance;
+        }
+
+
+        @Override
+        public int compareTo( HashedKey o ) {
+            return Long.compare( distance, o.distance );
+        }
+    }
 }
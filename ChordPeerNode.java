@@ -21,7 +21,7 @@ public abstract class ChordPeerNode extends PeerNode {
     public ChordPeerNode( Network network, String nodeID, boolean useSuccessorsOnly ) {
         super( network, nodeID );
         this.m = network.getNumberOfBits();
-        this.n = network.hash( nodeID );
+        this.n = getNodeHash();
     }
 
 
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * The connections of a peer to other peers and the number of references to each of them, e.g., fingers and predecessor pointers, keyed by the primitive node hash of the other peer. The connections are kept in an open-addressing table with linear probing. Lookups and count changes are lock-free and do not allocate: the count of a connection is changed in place by compare-and-set. Only adding a new connection takes a lock. A connection whose count dropped to zero is dead; it is never revived, its slot may be taken by a new connection, and it is dropped when the table is rebuilt.
+ */
+final class ConnectionTable {
+
+    private static final int MIN_CAPACITY = 16;
+
+
+    private static final class Connection {
+
+        private final long hash;
+        private final String nodeID;
+        private final AtomicInteger count = new AtomicInteger( 1 );
+
+
+        private Connection( long hash, String nodeID ) {
+            this.hash = hash;
+            this.nodeID = nodeID;
+        }
+
+
+        private boolean isAlive() {
+            return count.get() > 0;
+        }
+
+
+        /**
+         * Adds a reference, unless the connection is dead.
+         *
+         * @return false if the connection is dead
+         */
+        private boolean retain() {
+            for ( int c = count.get(); c > 0; c = count.get() ) {
+                if ( count.compareAndSet( c, c + 1 ) ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+
+        /**
+         * Removes a reference, unless the connection is dead.
+         *
+         * @return true if this was the last reference, i.e., the connection died
+         */
+        private boolean release() {
+            for ( int c = count.get(); c > 0; c = count.get() ) {
+                if ( count.compareAndSet( c, c - 1 ) ) {
+                    return c == 1;
+                }
+            }
+            return false;
+        }
+    }
+
+
+    /**
+     * The node ids of the live connections at some version of the table.
+     */
+    private static final class Snapshot {
+
+        private final int version;
+        private final Set<String> nodeIDs;
+
+
+        private Snapshot( int version, Set<String> nodeIDs ) {
+            this.version = version;
+            this.nodeIDs = nodeIDs;
+        }
+    }
+
+
+    /**
+     * The slots, a power of two many. A slot is null until a connection is put into it, and only replaced by a live connection if its connection is dead; the array is replaced when the table is rebuilt. Readers which see an outdated slot either skip a dead connection or fall back to the locked path.
+     */
+    private volatile Connection[] slots = new Connection[MIN_CAPACITY];
+
+    /**
+     * Number of slots which are not null. Guarded by this table.
+     */
+    private int used;
+
+    /**
+     * Incremented after a connection has been added or has died.
+     */
+    private final AtomicInteger version = new AtomicInteger();
+
+    /**
+     * The last snapshot returned by {@link #nodeIDs()}; reused as long as its version is current.
+     */
+    private volatile Snapshot snapshot = new Snapshot( 0, Collections.<String>emptySet() );
+
+
+    /**
+     * Adds a reference to a peer.
+     *
+     * @param hash the node hash of the peer
+     * @param nodeID the node id of the peer
+     */
+    void add( long hash, String nodeID ) {
+        Connection c = find( slots, hash, nodeID );
+        if ( c != null && c.retain() ) {
+            return;
+        }
+        synchronized ( this ) {
+            Connection[] table = slots;
+            int mask = table.length - 1;
+            int free = -1;
+            int i = indexOf( hash, mask );
+            for ( ; table[i] != null; i = (i + 1) & mask ) {
+                Connection existing = table[i];
+                if ( existing.isAlive() ) {
+                    if ( existing.hash == hash && existing.nodeID.equals( nodeID ) && existing.retain() ) {
+                        return;
+                    }
+                } else if ( free < 0 ) {
+                    free = i;
+                }
+            }
+            if ( free < 0 ) {
+                if ( 2 * (used + 1) > table.length ) {
+                    table = rebuild( table );
+                    mask = table.length - 1;
+                    for ( i = indexOf( hash, mask ); table[i] != null; i = (i + 1) & mask ) {
+                    }
+                }
+                free = i;
+                used++;
+            }
+            table[free] = new Connection( hash, nodeID );
+            slots = table;
+        }
+        version.incrementAndGet();
+    }
+
+
+    /**
+     * Removes a reference to a peer. The connection dies with its last reference.
+     *
+     * @param hash the node hash of the peer
+     * @param nodeID the node id of the peer
+     */
+    void remove( long hash, String nodeID ) {
+        Connection c = find( slots, hash, nodeID );
+        // a missing connection shouldn't happen, but you never know
+        if ( c != null && c.release() ) {
+            version.incrementAndGet();
+        }
+    }
+
+
+    /**
+     * Checks whether there is a live connection to a peer.
+     *
+     * @param hash the node hash of the peer
+     * @param nodeID the node id of the peer
+     * @return true if the peer is referenced
+     */
+    boolean contains( long hash, String nodeID ) {
+        return find( slots, hash, nodeID ) != null;
+    }
+
+
+    /**
+     * Returns the node ids of all live connections. The set is an immutable snapshot, which is shared until a connection is added or dies.
+     *
+     * @return node ids of the connected peers
+     */
+    Set<String> nodeIDs() {
+        Snapshot s = snapshot;
+        int current = version.get();
+        if ( s.version != current ) {
+            Set<String> nodeIDs = new HashSet<String>();
+            for ( Connection c : slots ) {
+                if ( c != null && c.isAlive() ) {
+                    nodeIDs.add( c.nodeID );
+                }
+            }
+            // changes while copying increment the version again, so the snapshot is not reused then
+            s = new Snapshot( current, Collections.unmodifiableSet( nodeIDs ) );
+            snapshot = s;
+        }
+        return s.nodeIDs;
+    }
+
+
+    private static Connection find( Connection[] table, long hash, String nodeID ) {
+        int mask = table.length - 1;
+        for ( int i = indexOf( hash, mask ); ; i = (i + 1) & mask ) {
+            Connection c = table[i];
+            if ( c == null ) {
+                return null;
+            }
+            if ( c.hash == hash && c.isAlive() && c.nodeID.equals( nodeID ) ) {
+                return c;
+            }
+        }
+    }
+
+
+    /**
+     * Copies the live connections into a new array with room for as many again, and drops the dead ones. Called with the lock held.
+     */
+    private Connection[] rebuild( Connection[] table ) {
+        int live = 0;
+        for ( Connection c : table ) {
+            if ( c != null && c.isAlive() ) {
+                live++;
+            }
+        }
+        int capacity = MIN_CAPACITY;
+        while ( capacity < 4 * (live + 1) ) {
+            capacity <<= 1;
+        }
+        Connection[] rebuilt = new Connection[capacity];
+        int mask = capacity - 1;
+        used = 0;
+        for ( Connection c : table ) {
+            // a connection which dies meanwhile is copied as well, and skipped like any dead one
+            if ( c != null && c.isAlive() ) {
+                int i = indexOf( c.hash, mask );
+                while ( rebuilt[i] != null ) {
+                    i = (i + 1) & mask;
+                }
+                rebuilt[i] = c;
+                used++;
+            }
+        }
+        return rebuilt;
+    }
+
+
+    private static int indexOf( long hash, int mask ) {
+        long h = hash * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+}
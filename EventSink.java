@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+/**
+ * Receives structured events from the routing and maintenance code of a network. Events are passed as primitive values and node references, so no strings are built by the caller; callers check {@link #isEnabled(Level)} first, so a disabled sink costs a single call.
+ *
+ * @see Network#setEventSink(EventSink)
+ */
+public interface EventSink {
+
+    /**
+     * Verbosity of events, from rare to frequent.
+     */
+    enum Level {
+        /**
+         * Changes of the network, e.g., peers failing.
+         */
+        INFO,
+        /**
+         * Changes of the overlay structure, e.g., finger updates.
+         */
+        DEBUG,
+        /**
+         * Events of single queries, e.g., resolved lookups.
+         */
+        TRACE
+    }
+
+
+    /**
+     * Sink which discards all events. This is the default of every network.
+     */
+    EventSink NOOP = new EventSink() {
+        @Override
+        public boolean isEnabled( Level level ) {
+            return false;
+        }
+
+
+        @Override
+        public void fingerChanged( ChordPeerNode owner, int index, long start, PeerNode node ) {
+        }
+
+
+        @Override
+        public void lookupResolved( PeerNode at, long keyHash, PeerNode node ) {
+        }
+
+
+        @Override
+        public void peerFailed( PeerNode node ) {
+        }
+    };
+
+
+    /**
+     * Checks whether events of the given level are processed.
+     *
+     * @param level the level
+     * @return false if events of this level are discarded
+     */
+    boolean isEnabled( Level level );
+
+
+    /**
+     * A finger table entry changed. Level {@link Level#DEBUG}.
+     *
+     * @param owner the node owning the finger table
+     * @param index the index of the entry
+     * @param start the start of the entry
+     * @param node the new node of the entry
+     */
+    void fingerChanged( ChordPeerNode owner, int index, long start, PeerNode node );
+
+
+    /**
+     * A lookup determined the node responsible for a key. Level {@link Level#TRACE}.
+     *
+     * @param at the node the lookup was processed at
+     * @param keyHash the hash of the key
+     * @param node the responsible node
+     */
+    void lookupResolved( PeerNode at, long keyHash, PeerNode node );
+
+
+    /**
+     * A peer failed without notice. Level {@link Level#INFO}.
+     *
+     * @param node the failed peer
+     */
+    void peerFailed( PeerNode node );
+}
@@ -5,88 +5,178 @@
 package ch.unibas.dmi.dbis.fds.p2p;
 
 
-import java.util.ArrayList;
-import java.util.List;
-
-
+/**
+ * The finger table of a chord node. The entries are stored in parallel arrays: the starts and the hashes of the finger nodes as primitive longs, the finger nodes as references. Thus, the table can be scanned without dereferencing any node. All arithmetic is done modulo 2^m in longs, so rings of up to 56 bits are supported.
+ */
 public class FingerTable<T extends ChordPeerNode> {
 
     private final T owner;
 
+    /**
+     * Bit mask selecting the m lowest bits, i.e., the identifier ring.
+     */
+    private final long mask;
+
+    /**
+     * The start of entry k: (n + 2^k) mod 2^m.
+     */
+    private final long[] starts;
+
+    /**
+     * The hash of the node of entry k, or the hash of the owner if entry k has no node yet.
+     */
+    private final long[] nodeHashes;
+
+    private final Object[] nodes;
+
 
+    /**
+     * View of a single entry of the table. Views are created on demand and hold no state of their own.
+     */
     public class Entry {
 
-        /**
-         * The start, inclusive.
-         */
-        private final long start;
+        private final int index;
 
-        /**
-         * The end, exclusive.
-         */
-        private final long end;
 
-        private T node;
+        private Entry( int index ) {
+            this.index = index;
+        }
 
 
+        /**
+         * @return the start, inclusive
+         */
         public long getStart() {
-            return start;
+            return FingerTable.this.getStart( index );
         }
 
 
+        /**
+         * @return the end, exclusive
+         */
         public long getEnd() {
-            return end;
+            return FingerTable.this.getEnd( index );
         }
 
 
         public T getNode() {
-            return node;
+            return FingerTable.this.getNode( index );
         }
 
 
         public void setNode( T node ) {
-            if ( this.node != null ) {
-                owner.removeConnection( this.node.nodeID );
-            }
-            this.node = node;
-
-            System.out.println( "FingerTable: finger changed at " + owner.n + ": " + toString() );
-            owner.addConnection( node.nodeID );
-        }
-
-
-        public Entry( long n, int m, int k ) {
-            this.start = (n + (1 << k)) % (1 << m);
-            this.end = (n + (1 << (k + 1))) % (1 << m);
+            FingerTable.this.setNode( index, node );
         }
 
 
         @Override
         public String toString() {
-            return "[" + start + "," + end + ") : " + node;
+            return "[" + getStart() + "," + getEnd() + ") : " + getNode();
         }
     }
 
 
-    private final List<Entry> entries;
+    public FingerTable( T owner, int m ) {
+        this.owner = owner;
+        this.mask = (1L << m) - 1;
+        this.starts = new long[m];
+        this.nodeHashes = new long[m];
+        this.nodes = new Object[m];
+        for ( int k = 0; k < m; ++k ) {
+            starts[k] = (owner.n + (1L << k)) & mask;
+            nodeHashes[k] = owner.n;
+        }
+    }
 
 
     public Entry get( int index ) {
-        return entries.get( index );
+        if ( index < 0 || index >= starts.length ) {
+            throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + starts.length );
+        }
+        return new Entry( index );
     }
 
 
     public int size() {
-        return entries.size();
+        return starts.length;
     }
 
 
-    public FingerTable( T owner, int m ) {
-        this.owner = owner;
-        entries = new ArrayList<Entry>( m );
-        for ( int k = 0; k < m; ++k ) {
-            entries.add( new Entry( owner.n, m, k ) );
+    /**
+     * @param index the entry
+     * @return the start of the entry, inclusive
+     */
+    public long getStart( int index ) {
+        return starts[index];
+    }
+
+
+    /**
+     * @param index the entry
+     * @return the end of the entry, exclusive
+     */
+    public long getEnd( int index ) {
+        return index + 1 < starts.length ? starts[index + 1] : owner.n;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    public T getNode( int index ) {
+        return (T) nodes[index];
+    }
+
+
+    public void setNode( int index, T node ) {
+        T old = getNode( index );
+        if ( old == node ) {
+            // e.g., refreshed by fixFingers(); leaves the connections and their snapshot untouched
+            return;
+        }
+        // added before the old one is removed, so a connection shared with another finger is not dropped in between
+        owner.addConnection( node );
+        if ( old != null ) {
+            owner.removeConnection( old );
+        }
+        nodes[index] = node;
+        nodeHashes[index] = node.n;
+
+        EventSink events = owner.network.getEventSink();
+        if ( events.isEnabled( EventSink.Level.DEBUG ) ) {
+            events.fingerChanged( owner, index, starts[index], node );
+        }
+    }
+
+
+    /**
+     * Scans the table downwards, starting at a given entry, for a node which lies strictly between the owner and the given id on the ring (as in closest_preceding_finger(), Figure 4, page 5). Only the primitive hashes are read.
+     *
+     * @param fromIndex the entry to start the scan at
+     * @param id the id
+     * @return the index of the first such entry, or -1 if there is none
+     */
+    public int precedingIndex( int fromIndex, long id ) {
+        for ( int i = fromIndex; i >= 0; --i ) {
+            if ( precedes( nodeHashes[i], id ) ) {
+                return i;
+            }
         }
+        return -1;
+    }
+
+
+    /**
+     * Checks whether a hash lies strictly between the owner and the given id on the ring.
+     *
+     * @param hash the hash, e.g., of a finger node
+     * @param id the id
+     * @return true if the hash lies in (n, id)
+     */
+    public boolean precedes( long hash, long id ) {
+        final long n = owner.n;
+        long distance = (hash - n) & mask;
+        long distanceOfId = (id - n) & mask;
+        // distance 0 is the owner itself (or an empty entry); the open interval (n, n) is the whole ring but n
+        return distance != 0 && (distanceOfId == 0 || distance < distanceOfId);
     }
 
 
@@ -94,9 +184,9 @@ public class FingerTable<T extends ChordPeerNode> {
     public String toString() {
         StringBuilder s = new StringBuilder();
 
-        for ( int i = 0; i < entries.size(); ++i ) {
+        for ( int i = 0; i < starts.length; ++i ) {
             s.append( "finger " + i + ": " );
-            s.append( entries.get( i ).toString() );
+            s.append( get( i ).toString() );
             s.append( "\n" );
         }
 
@@ -5,6 +5,9 @@
 package ch.unibas.dmi.dbis.fds.p2p;
 
 
+import java.util.concurrent.Executor;
+
+
 /**
  * Example network implementation class Implements a fully connected network
  *
@@ -12,6 +15,17 @@ package ch.unibas.dmi.dbis.fds.p2p;
  */
 public class FullyConnectedNetwork extends Network {
 
+    /**
+     * Executor used by the peers to query their connections concurrently when broadcasting. If null, the connections are queried one after another.
+     */
+    private volatile Executor broadcastExecutor;
+
+    /**
+     * Maximum number of connections queried per broadcast wave. Values less or equal to zero query all connections in one wave.
+     */
+    private volatile int broadcastWaveSize;
+
+
     /**
      * Constructor
      *
@@ -30,7 +44,7 @@ public class FullyConnectedNetwork extends Network {
         for ( PeerNode p1 : nodes.values() ) {
             for ( PeerNode p2 : nodes.values() ) {
                 if ( p1 != p2 ) {
-                    p1.addConnection( p2.getNodeID() );
+                    p1.addConnection( p2 );
                 }
             }
         }
@@ -41,4 +55,34 @@ public class FullyConnectedNetwork extends Network {
     public PeerNode createPeer( String id, boolean useSuccessorOnly ) {
         return new FullyConnectedPeer( this, id );
     }
+
+
+    public Executor getBroadcastExecutor() {
+        return broadcastExecutor;
+    }
+
+
+    /**
+     * Sets the executor used to query the connections concurrently when broadcasting, e.g., a {@link java.util.concurrent.ForkJoinPool}. Outstanding queries of a broadcast are cancelled as soon as one of them is successful.
+     *
+     * @param broadcastExecutor the executor; null to query the connections one after another
+     */
+    public void setBroadcastExecutor( Executor broadcastExecutor ) {
+        this.broadcastExecutor = broadcastExecutor;
+    }
+
+
+    public int getBroadcastWaveSize() {
+        return broadcastWaveSize;
+    }
+
+
+    /**
+     * Sets the number of connections queried per broadcast wave. The next wave is only sent if no query of the previous wave was successful.
+     *
+     * @param broadcastWaveSize connections per wave; values less or equal to zero query all connections in one wave
+     */
+    public void setBroadcastWaveSize( int broadcastWaveSize ) {
+        this.broadcastWaveSize = broadcastWaveSize;
+    }
 }
@@ -5,6 +5,19 @@
 package ch.unibas.dmi.dbis.fds.p2p;
 
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
 /**
  * Example peer implementation class implements a fully connected peer. GetQueries are done via broadcasting to each node. SaveQueries are done at each node.
  *
@@ -37,7 +50,8 @@ public class FullyConnectedPeer extends PeerNode {
         //log save query message
         network.logPassedMessage( Message.MessageType.SET, originOfQuery, this );
 
-        //save data item at destination
+        //save data item at destination, after logging it for recovery
+        logDataItem( key, data );
         localData.put( key, data );
 
         //log save query result message
@@ -66,17 +80,7 @@ public class FullyConnectedPeer extends PeerNode {
         if ( (resData == null) && (originOfQuery == null) ) {
 
             //Do broadcast to all
-            for ( String nodeId : connections.keySet() ) {
-                PeerNode p = network.getPeer( nodeId );
-                String broadcastResult = p.getDataItem( this, key );
-                //check if result available
-                if ( broadcastResult != null ) {
-                    //store result of query message
-                    resData = broadcastResult;
-                    // return on first success
-                    break;
-                }
-            }
+            resData = broadcast( key );
         }
 
         //log result of query message
@@ -86,6 +90,97 @@ public class FullyConnectedPeer extends PeerNode {
     }
 
 
+    /**
+     * Queries the connections of this peer for a data item, in waves of the size configured at the network. Within a wave, the connections are queried concurrently if the network has a broadcast executor, otherwise one after another. Returns on first success.
+     *
+     * @param key of data item
+     * @return value of data item or null if no connection has it
+     */
+    private String broadcast( String key ) {
+        Set<String> connections = getConnections();
+        String[] nodeIds = connections.toArray( new String[connections.size()] );
+        Executor executor = null;
+        int waveSize = 0;
+        if ( network instanceof FullyConnectedNetwork ) {
+            executor = ((FullyConnectedNetwork) network).getBroadcastExecutor();
+            waveSize = ((FullyConnectedNetwork) network).getBroadcastWaveSize();
+        }
+        if ( waveSize <= 0 ) {
+            waveSize = nodeIds.length;
+        }
+
+        for ( int from = 0; from < nodeIds.length; from += waveSize ) {
+            int to = Math.min( nodeIds.length, from + waveSize );
+            String result = executor == null ? queryOneByOne( key, nodeIds, from, to ) : queryConcurrently( key, nodeIds, from, to, executor );
+            if ( result != null ) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+
+    private String queryOneByOne( String key, String[] nodeIds, int from, int to ) {
+        String result = null;
+        int queries = 0;
+        for ( int i = from; i < to && result == null; i++ ) {
+            PeerNode p = network.getPeer( nodeIds[i] );
+            if ( p != null ) {
+                queries++;
+                result = p.getDataItem( this, key );
+            }
+        }
+        network.getStatistics().addBroadcastWave( queries );
+        return result;
+    }
+
+
+    private String queryConcurrently( final String key, String[] nodeIds, int from, int to, Executor executor ) {
+        CompletionService<String> completionService = new ExecutorCompletionService<String>( executor );
+        List<Future<String>> futures = new ArrayList<Future<String>>( to - from );
+        final AtomicBoolean found = new AtomicBoolean();
+        final AtomicInteger queries = new AtomicInteger();
+        for ( int i = from; i < to; i++ ) {
+            final PeerNode p = network.getPeer( nodeIds[i] );
+            if ( p == null ) {
+                continue;
+            }
+            futures.add( completionService.submit( new Callable<String>() {
+                @Override
+                public String call() {
+                    // queries which did not start before the first success are not sent at all
+                    if ( found.get() ) {
+                        return null;
+                    }
+                    queries.incrementAndGet();
+                    String result = p.getDataItem( FullyConnectedPeer.this, key );
+                    if ( result != null ) {
+                        found.set( true );
+                    }
+                    return result;
+                }
+            } ) );
+        }
+
+        String result = null;
+        try {
+            for ( int i = 0; i < futures.size() && result == null; i++ ) {
+                result = completionService.take().get();
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        } catch ( ExecutionException e ) {
+            throw new IllegalStateException( "Broadcast query for key " + key + " failed.", e.getCause() );
+        } finally {
+            for ( Future<String> future : futures ) {
+                future.cancel( false );
+            }
+        }
+        network.getStatistics().addBroadcastWave( queries.get() );
+        return result;
+    }
+
+
     /**
      * @see PeerNode#lookupNodeForItem(PeerNode, String)
      */
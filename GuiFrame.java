@@ -244,6 +244,8 @@ public class GuiFrame extends JFrame implements ActionListener {
             buttonClearLog.setEnabled( !(boxPeers.getSelectedItem() instanceof PeerNode) );
         } else if ( e.getSource().equals( buttonClearLog ) ) {
             network.clearLogs();
+            network.getStatistics().reset();
+            network.getLookupStatistics().reset();
             this.createPeer( "TEXT" );
         } else if ( e.getSource().equals( buttonFingersUpdate ) ) {
             updateFingers( node );
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+/**
+ * Hashes node ids and data keys onto the identifier ring of a network. The SHA digests are reused per thread, ASCII strings are hashed without allocating, and the first seven bytes of the digest are folded into the hash with shifts. Optionally, hashes of recently used keys are kept in a small, bounded cache.
+ */
+public final class HashEngine {
+
+    /**
+     * Number of digest bytes folded into a hash value. Together with the maximum of 56 bits this keeps hashes positive.
+     */
+    private static final int FOLDED_BYTES = 7;
+
+
+    /**
+     * Per-thread digest and scratch buffers.
+     */
+    private static final class State {
+
+        private final MessageDigest md;
+        private final byte[] digest;
+        private byte[] input = new byte[64];
+
+
+        private State() {
+            try {
+                md = MessageDigest.getInstance( "SHA" );
+            } catch ( NoSuchAlgorithmException e ) {
+                throw new IllegalStateException( "Hash not supported by your JVM!", e );
+            }
+            digest = new byte[md.getDigestLength()];
+        }
+    }
+
+
+    private static final ThreadLocal<State> STATE = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            return new State();
+        }
+    };
+
+
+    /**
+     * Entry of the key cache. Immutable, so it can be published to other threads without synchronization.
+     */
+    private static final class CachedHash {
+
+        private final String key;
+        private final long hash;
+
+
+        private CachedHash( String key, long hash ) {
+            this.key = key;
+            this.hash = hash;
+        }
+    }
+
+
+    /**
+     * Bit mask selecting the numberOfBits lowest bits.
+     */
+    private final long mask;
+
+    /**
+     * Cache of key hashes in which every key has two candidate slots; null if disabled.
+     */
+    private volatile CachedHash[] keyCache;
+
+
+    /**
+     * Constructor
+     *
+     * @param numberOfBits number of bits of the resulting hash values
+     */
+    public HashEngine( int numberOfBits ) {
+        this.mask = (1L << numberOfBits) - 1;
+    }
+
+
+    /**
+     * Hashes a value, consulting the key cache if it is enabled.
+     *
+     * @param value the string to be hashed
+     * @return hash value
+     */
+    public long hash( String value ) {
+        CachedHash[] cache = keyCache;
+        if ( cache == null ) {
+            return digest( value );
+        }
+        // two candidate slots per key keep conflict misses low without any locking
+        int h = value.hashCode();
+        int slot1 = spread( h ) & (cache.length - 1);
+        int slot2 = spread( h * 0x9E3779B9 ) & (cache.length - 1);
+        CachedHash cached = cache[slot1];
+        if ( cached != null && cached.key.equals( value ) ) {
+            return cached.hash;
+        }
+        cached = cache[slot2];
+        if ( cached != null && cached.key.equals( value ) ) {
+            return cached.hash;
+        }
+        long hash = digest( value );
+        int slot = (cache[slot1] == null || (cache[slot2] != null && (hash & 1) == 0)) ? slot1 : slot2;
+        cache[slot] = new CachedHash( value, hash );
+        return hash;
+    }
+
+
+    /**
+     * Hashes a value without consulting the key cache.
+     *
+     * @param value the string to be hashed
+     * @return hash value
+     */
+    public long digest( String value ) {
+        State state = STATE.get();
+        MessageDigest md = state.md;
+        int length = value.length();
+        byte[] input = state.input;
+        if ( input.length < length ) {
+            input = state.input = new byte[Math.max( length, 2 * input.length )];
+        }
+        boolean ascii = true;
+        for ( int i = 0; i < length; i++ ) {
+            char c = value.charAt( i );
+            if ( c >= 0x80 ) {
+                ascii = false;
+                break;
+            }
+            input[i] = (byte) c;
+        }
+        if ( ascii ) {
+            md.update( input, 0, length );
+        } else {
+            // same bytes as String.getBytes() would produce
+            md.update( value.getBytes() );
+        }
+        byte[] digest = state.digest;
+        try {
+            md.digest( digest, 0, digest.length );
+        } catch ( DigestException e ) {
+            throw new IllegalStateException( e );
+        }
+        long v = 0;
+        for ( int i = 0; i < FOLDED_BYTES; i++ ) {
+            v |= (digest[i] & 0xffL) << (8 * i);
+        }
+        return v & mask;
+    }
+
+
+    /**
+     * Enables the bounded key cache.
+     *
+     * @param size maximum number of cached keys, rounded up to a power of two; zero disables the cache
+     */
+    public void setKeyCacheSize( int size ) {
+        if ( size < 0 ) {
+            throw new IllegalArgumentException( "size must not be negative." );
+        }
+        if ( size == 0 ) {
+            keyCache = null;
+        } else {
+            int capacity = Integer.highestOneBit( Math.min( size, 1 << 30 ) );
+            if ( capacity < size ) {
+                capacity <<= 1;
+            }
+            keyCache = new CachedHash[capacity];
+        }
+    }
+
+
+    /**
+     * Returns the capacity of the key cache.
+     *
+     * @return capacity, zero if disabled
+     */
+    public int getKeyCacheSize() {
+        CachedHash[] cache = keyCache;
+        return cache == null ? 0 : cache.length;
+    }
+
+
+    private static int spread( int h ) {
+        return h ^ (h >>> 16);
+    }
+}
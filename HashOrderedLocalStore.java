@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+
+/**
+ * Local store keeping the data items sorted by the ring hash of their keys in a concurrent skip list, so a ring sector is a contiguous sub-map (two at the wrap-around) and is extracted without looking at any other item. Every access hashes the key, so consider enabling the key hash cache of the network.
+ */
+public final class HashOrderedLocalStore implements LocalStore {
+
+    /**
+     * A key and its hash, ordered by hash first. A null key is a bound before all keys with the same hash.
+     */
+    private static final class RingKey implements Comparable<RingKey> {
+
+        private final long hash;
+        private final String key;
+
+
+        private RingKey( long hash, String key ) {
+            this.hash = hash;
+            this.key = key;
+        }
+
+
+        @Override
+        public int compareTo( RingKey o ) {
+            if ( hash != o.hash ) {
+                return hash < o.hash ? -1 : 1;
+            }
+            if ( key == null || o.key == null ) {
+                return key == o.key ? 0 : (key == null ? -1 : 1);
+            }
+            return key.compareTo( o.key );
+        }
+
+
+        @Override
+        public boolean equals( Object o ) {
+            return o instanceof RingKey && compareTo( (RingKey) o ) == 0;
+        }
+
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode( hash ) * 31 + (key == null ? 0 : key.hashCode());
+        }
+    }
+
+
+    private final Network network;
+    private final ConcurrentNavigableMap<RingKey, String> items = new ConcurrentSkipListMap<RingKey, String>();
+
+
+    public HashOrderedLocalStore( Network network ) {
+        this.network = network;
+    }
+
+
+    private RingKey ringKey( String key ) {
+        return new RingKey( network.hash( key ), key );
+    }
+
+
+    @Override
+    public String get( String key ) {
+        return items.get( ringKey( key ) );
+    }
+
+
+    @Override
+    public void put( String key, String value ) {
+        items.put( ringKey( key ), value );
+    }
+
+
+    @Override
+    public void putAll( Map<String, String> items ) {
+        for ( Map.Entry<String, String> item : items.entrySet() ) {
+            put( item.getKey(), item.getValue() );
+        }
+    }
+
+
+    @Override
+    public boolean containsKey( String key ) {
+        return items.containsKey( ringKey( key ) );
+    }
+
+
+    @Override
+    public Map<String, String> extractRange( long fromExclusive, long toInclusive ) {
+        Map<String, String> extracted = new TreeMap<String, String>();
+        // lower bounds of the hashes following the sector ends; hashes are positive, so the maximum is never reached
+        RingKey from = new RingKey( fromExclusive + 1, null );
+        RingKey to = new RingKey( toInclusive + 1, null );
+        if ( fromExclusive < toInclusive ) {
+            extract( items.subMap( from, to ), extracted );
+        } else {
+            // the sector wraps around zero, or is the whole ring
+            extract( items.tailMap( from ), extracted );
+            extract( items.headMap( to ), extracted );
+        }
+        return extracted;
+    }
+
+
+    private void extract( ConcurrentNavigableMap<RingKey, String> range, Map<String, String> extracted ) {
+        for ( Map.Entry<RingKey, String> entry : range.entrySet() ) {
+            // skip items replaced concurrently; the new value stays
+            if ( items.remove( entry.getKey(), entry.getValue() ) ) {
+                extracted.put( entry.getKey().key, entry.getValue() );
+            }
+        }
+    }
+
+
+    @Override
+    public Map<String, String> extractAll() {
+        Map<String, String> extracted = new TreeMap<String, String>();
+        Map.Entry<RingKey, String> entry;
+        while ( (entry = items.pollFirstEntry()) != null ) {
+            extracted.put( entry.getKey().key, entry.getValue() );
+        }
+        return extracted;
+    }
+
+
+    @Override
+    public Map<String, String> snapshot() {
+        Map<String, String> snapshot = new TreeMap<String, String>();
+        for ( Map.Entry<RingKey, String> entry : items.entrySet() ) {
+            snapshot.put( entry.getKey().key, entry.getValue() );
+        }
+        return snapshot;
+    }
+
+
+    @Override
+    public int size() {
+        return items.size();
+    }
+}
@@ -0,0 +1,521 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * Runs a scripted workload against a network without any user interface: a number of joins, stabilization rounds, SET and GET queries, and optionally a failure experiment. Prints throughput and message statistics per phase. This class must not use any AWT or Swing classes.
+ */
+public class HeadlessSimulation {
+
+    private final Network network;
+    private final boolean useSuccessorsOnly;
+    private final PrintStream out;
+
+    private int joins = 10;
+    private int sets = 1000;
+    private int gets = 1000;
+    private int stabilizationRounds = 1;
+    private double failFraction = 0;
+    private boolean bulkLoad = false;
+    private File restoreFrom = null;
+    private File snapshotTo = null;
+    private WriteAheadLog writeAheadLog = null;
+
+
+    /**
+     * Constructor
+     *
+     * @param network the (empty) network to run the workload on
+     * @param useSuccessorsOnly passed to the created peers
+     * @param out where the results are printed to
+     */
+    public HeadlessSimulation( Network network, boolean useSuccessorsOnly, PrintStream out ) {
+        this.network = network;
+        this.useSuccessorsOnly = useSuccessorsOnly;
+        this.out = out;
+    }
+
+
+    public HeadlessSimulation setJoins( int joins ) {
+        this.joins = joins;
+        return this;
+    }
+
+
+    public HeadlessSimulation setSets( int sets ) {
+        this.sets = sets;
+        return this;
+    }
+
+
+    public HeadlessSimulation setGets( int gets ) {
+        this.gets = gets;
+        return this;
+    }
+
+
+    public HeadlessSimulation setStabilizationRounds( int stabilizationRounds ) {
+        this.stabilizationRounds = stabilizationRounds;
+        return this;
+    }
+
+
+    /**
+     * Sets whether a chord ring is built by {@link ChordNetwork#bulkLoad(int, String, boolean)} instead of incremental joins.
+     *
+     * @param bulkLoad true to bulk load the ring
+     * @return this
+     */
+    public HeadlessSimulation setBulkLoad( boolean bulkLoad ) {
+        this.bulkLoad = bulkLoad;
+        return this;
+    }
+
+
+    /**
+     * Sets a snapshot a chord ring is restored from by {@link ChordNetwork#restoreSnapshot(File)}, instead of joining peers.
+     *
+     * @param restoreFrom the snapshot file; null to join peers
+     * @return this
+     */
+    public HeadlessSimulation setRestoreFrom( File restoreFrom ) {
+        this.restoreFrom = restoreFrom;
+        return this;
+    }
+
+
+    /**
+     * Sets a file a snapshot of a chord ring is written to by {@link ChordNetwork#writeSnapshot(File)} after the SET queries, e.g., to restore the ring in later runs.
+     *
+     * @param snapshotTo the snapshot file; null to write no snapshot
+     * @return this
+     */
+    public HeadlessSimulation setSnapshotTo( File snapshotTo ) {
+        this.snapshotTo = snapshotTo;
+        return this;
+    }
+
+
+    /**
+     * Sets a write-ahead log for the SET queries. Its records of earlier runs are replayed once the peers are in place; then it is attached to the network. The log is not closed.
+     *
+     * @param writeAheadLog the log; null to keep SETs in memory only
+     * @return this
+     */
+    public HeadlessSimulation setWriteAheadLog( WriteAheadLog writeAheadLog ) {
+        this.writeAheadLog = writeAheadLog;
+        return this;
+    }
+
+
+    /**
+     * Sets the fraction of chord peers which fail simultaneously after the GET phase. If greater than zero, the same lookups are run before and after the failure, and the share of lookups resolving to the correct live node is printed for both. Before, a tenth as many peers leave gracefully, and whether their predecessors were relinked to their successors is printed.
+     *
+     * @param failFraction between 0 (no failure experiment) and 1
+     * @return this
+     */
+    public HeadlessSimulation setFailFraction( double failFraction ) {
+        this.failFraction = failFraction;
+        return this;
+    }
+
+
+    /**
+     * Runs the workload.
+     *
+     * @throws IOException if a snapshot cannot be read or written
+     */
+    public void run() throws IOException {
+        out.println( "network: " + network.getClass().getSimpleName() + ", bits: " + network.getNumberOfBits()
+                + ", successors only: " + useSuccessorsOnly );
+
+        Phase phase;
+        if ( restoreFrom != null && network instanceof ChordNetwork ) {
+            phase = new Phase( "restore" );
+            int restored = ((ChordNetwork) network).restoreSnapshot( restoreFrom ).size();
+            phase.end( restored );
+        } else {
+            phase = new Phase( "join" );
+            if ( bulkLoad && network instanceof ChordNetwork ) {
+                ((ChordNetwork) network).bulkLoad( joins, "Node_", useSuccessorsOnly );
+            } else {
+                network.createPeers( joins, "Node_", useSuccessorsOnly );
+            }
+            network.arrangeOverlayStructure();
+            phase.end( joins );
+        }
+
+        if ( writeAheadLog != null ) {
+            phase = new Phase( "replay" );
+            long replayed = writeAheadLog.replay( network );
+            phase.end( (int) replayed );
+            network.setWriteAheadLog( writeAheadLog );
+        }
+
+        if ( network instanceof ChordNetwork ) {
+            phase = new Phase( "stabilize" );
+            List<ChordPeerImpl> peers = chordPeers();
+            for ( int round = 0; round < stabilizationRounds; round++ ) {
+                for ( ChordPeerImpl peer : peers ) {
+                    peer.stabilize( peer );
+                    if ( !useSuccessorsOnly ) {
+                        peer.fixFingers( 0, network.getNumberOfBits() - 1 );
+                    }
+                }
+            }
+            phase.end( stabilizationRounds * peers.size() );
+        }
+
+        // the lookup results are checked against the ring index after each timed phase
+        PeerNode[] setNodes = new PeerNode[sets];
+        phase = new Phase( "set" );
+        for ( int i = 0; i < sets; i++ ) {
+            String key = "Key_" + i;
+            PeerNode node = network.getRandomPeer().lookupNodeForItem( null, key );
+            node.setDataItem( null, key, "Value_" + i );
+            setNodes[i] = node;
+        }
+        phase.end( sets );
+        int misrouted = countMisrouted( setNodes, 0 );
+        if ( writeAheadLog != null ) {
+            out.println( String.format( Locale.ROOT, "write-ahead log: %d records in %d commits", writeAheadLog.getRecords(), writeAheadLog.getCommits() ) );
+        }
+
+        if ( snapshotTo != null && network instanceof ChordNetwork ) {
+            phase = new Phase( "snapshot" );
+            int written = ((ChordNetwork) network).writeSnapshot( snapshotTo );
+            phase.end( written );
+        }
+
+        MessageStatistics statistics = network.getStatistics();
+        long cacheHitsBefore = statistics.getLookupCacheHits();
+        long cacheMissesBefore = statistics.getLookupCacheMisses();
+        long savedMessagesBefore = statistics.getSavedLookupMessages();
+        phase = new Phase( "get" );
+        int hits = 0;
+        boolean replicated = isReplicated();
+        Map<String, int[]> reads = new HashMap<String, int[]>();
+        PeerNode[] getNodes = new PeerNode[gets];
+        for ( int i = 0; i < gets; i++ ) {
+            String key = "Key_" + (sets == 0 ? i : i % sets);
+            PeerNode peer = network.getRandomPeer();
+            PeerNode node;
+            if ( replicated && peer instanceof ChordPeerImpl ) {
+                // any replica may serve the read
+                node = ((ChordPeerImpl) peer).lookupReplicaForItem( null, key );
+            } else {
+                node = peer.lookupNodeForItem( null, key );
+                getNodes[i] = node;
+            }
+            if ( node.getDataItem( null, key ) != null ) {
+                hits++;
+            }
+            countRead( reads, node );
+        }
+        phase.end( gets );
+        if ( !replicated ) {
+            misrouted += countMisrouted( getNodes, sets );
+        }
+        out.println( String.format( Locale.ROOT, "get hit rate: %d/%d", hits, gets ) );
+        if ( network instanceof ChordNetwork ) {
+            out.println( String.format( Locale.ROOT, "misrouted lookups: %d/%d", misrouted, sets + (replicated ? 0 : gets) ) );
+            printReadLoad( reads );
+        }
+        long cacheHits = statistics.getLookupCacheHits() - cacheHitsBefore;
+        long cacheLookups = cacheHits + statistics.getLookupCacheMisses() - cacheMissesBefore;
+        if ( cacheLookups > 0 ) {
+            out.println( String.format( Locale.ROOT, "lookup cache: %d/%d hits (%.1f%%), %d messages saved",
+                    cacheHits, cacheLookups, 100.0 * cacheHits / cacheLookups, statistics.getSavedLookupMessages() - savedMessagesBefore ) );
+        }
+        if ( network.getStatistics().getReplicatedItems() > 0 ) {
+            out.println( String.format( Locale.ROOT, "replicated items: %d, per set: %.2f", network.getStatistics().getReplicatedItems(),
+                    sets == 0 ? 0.0 : (double) network.getStatistics().getReplicatedItems() / sets ) );
+        }
+
+        if ( statistics.getBroadcastWaves() > 0 ) {
+            out.println( String.format( Locale.ROOT, "broadcast waves: %d, queries/wave: %.2f", statistics.getBroadcastWaves(),
+                    (double) statistics.getBroadcastQueries() / statistics.getBroadcastWaves() ) );
+        }
+
+        if ( failFraction > 0 && network instanceof ChordNetwork ) {
+            if ( chordPeers().size() == network.getNumberOfPeers() ) {
+                runFailureExperiment();
+            } else {
+                out.println( "failure experiment skipped: only supported for ChordPeerImpl peers" );
+            }
+        }
+    }
+
+
+    /**
+     * Fails a fraction of the peers at once, without any stabilization afterwards, and compares lookups before and after.
+     */
+    private void runFailureExperiment() {
+        int lookups = Math.max( 1, gets );
+
+        Phase phase = new Phase( "lookup" );
+        PeerNode[] results = lookup( lookups );
+        phase.end( lookups );
+        int correct = countCorrect( results );
+        out.println( String.format( Locale.ROOT, "lookup success: %d/%d", correct, lookups ) );
+
+        runLeaves();
+
+        List<ChordPeerImpl> peers = chordPeers();
+        Collections.shuffle( peers );
+        int failures = Math.min( peers.size() - 1, (int) Math.round( failFraction * peers.size() ) );
+        phase = new Phase( "fail" );
+        for ( int i = 0; i < failures; i++ ) {
+            peers.get( i ).fail();
+        }
+        phase.end( failures );
+
+        phase = new Phase( "lookup" );
+        results = lookup( lookups );
+        phase.end( lookups );
+        correct = countCorrect( results );
+        out.println( String.format( Locale.ROOT, "lookup success after %d of %d peers failed: %d/%d", failures, peers.size(), correct, lookups ) );
+
+        List<ChordPeerImpl> live = chordPeers();
+        phase = new Phase( "repair" );
+        for ( ChordPeerImpl peer : live ) {
+            peer.stabilize( peer );
+        }
+        for ( ChordPeerImpl peer : live ) {
+            peer.repairReplicas();
+        }
+        phase.end( live.size() );
+
+        int hits = 0;
+        boolean replicated = isReplicated();
+        for ( int i = 0; i < lookups; i++ ) {
+            String key = "Key_" + (sets == 0 ? i : i % sets);
+            PeerNode peer = network.getRandomPeer();
+            try {
+                PeerNode node = replicated && peer instanceof ChordPeerImpl ? ((ChordPeerImpl) peer).lookupReplicaForItem( null, key ) : peer.lookupNodeForItem( null, key );
+                if ( node.getDataItem( null, key ) != null ) {
+                    hits++;
+                }
+            } catch ( IllegalStateException e ) {
+                // routing gave up, e.g., because the ring is partitioned
+            }
+        }
+        out.println( String.format( Locale.ROOT, "get hit rate after %d of %d peers failed: %d/%d", failures, peers.size(), hits, lookups ) );
+    }
+
+
+    /**
+     * Lets a tenth as many peers as are to fail, but at least one, leave gracefully, and checks whether the predecessor of every leaving peer was linked to its successor directly, as stabilization does not run meanwhile.
+     */
+    private void runLeaves() {
+        List<ChordPeerImpl> peers = chordPeers();
+        Collections.shuffle( peers );
+        int leaves = Math.min( peers.size() - 1, Math.max( 1, (int) Math.round( failFraction * peers.size() / 10 ) ) );
+        ChordPeerImpl[] predecessors = new ChordPeerImpl[leaves];
+        ChordPeerImpl[] successors = new ChordPeerImpl[leaves];
+        Phase phase = new Phase( "leave" );
+        for ( int i = 0; i < leaves; i++ ) {
+            ChordPeerImpl peer = peers.get( i );
+            PeerNode predecessor = peer.getChordPredecessor();
+            predecessors[i] = predecessor == peer ? null : (ChordPeerImpl) predecessor;
+            successors[i] = peer.finger.getNode( 0 );
+            peer.leave();
+            // a later leave may relink the predecessor again, so it is checked right away
+            if ( predecessors[i] != null && predecessors[i].finger.getNode( 0 ) != successors[i] ) {
+                successors[i] = null;
+            }
+        }
+        phase.end( leaves );
+
+        int relinked = 0;
+        for ( int i = 0; i < leaves; i++ ) {
+            if ( predecessors[i] == null || successors[i] != null ) {
+                relinked++;
+            }
+        }
+        out.println( String.format( Locale.ROOT, "predecessors linked to the successor of the leaving peer: %d/%d", relinked, leaves ) );
+    }
+
+
+    private boolean isReplicated() {
+        return network instanceof ChordNetwork && ((ChordNetwork) network).getReplicationFactor() > 1;
+    }
+
+
+    private static void countRead( Map<String, int[]> reads, PeerNode node ) {
+        int[] count = reads.get( node.getNodeID() );
+        if ( count == null ) {
+            count = new int[1];
+            reads.put( node.getNodeID(), count );
+        }
+        count[0]++;
+    }
+
+
+    /**
+     * Prints how evenly the reads were spread over the peers.
+     *
+     * @param reads number of reads per node id
+     */
+    private void printReadLoad( Map<String, int[]> reads ) {
+        int max = 0;
+        long total = 0;
+        for ( int[] count : reads.values() ) {
+            max = Math.max( max, count[0] );
+            total += count[0];
+        }
+        int peers = network.getNumberOfPeers();
+        out.println( String.format( Locale.ROOT, "read load: %d of %d peers served reads, max %d, mean %.2f reads per peer",
+                reads.size(), peers, max, peers == 0 ? 0.0 : (double) total / peers ) );
+    }
+
+
+    /**
+     * Looks up the keys Key_0 to Key_(lookups - 1) from random peers.
+     *
+     * @param lookups number of lookups
+     * @return the resulting nodes by key number, null where routing gave up
+     */
+    private PeerNode[] lookup( int lookups ) {
+        PeerNode[] results = new PeerNode[lookups];
+        for ( int i = 0; i < lookups; i++ ) {
+            try {
+                results[i] = network.getRandomPeer().lookupNodeForItem( null, "Key_" + i );
+            } catch ( IllegalStateException e ) {
+                // routing gave up, e.g., because the ring is partitioned
+            }
+        }
+        return results;
+    }
+
+
+    /**
+     * Counts the lookups of {@link #lookup(int)} which resolved to the node responsible among the live peers.
+     *
+     * @param results the resulting nodes by key number
+     * @return number of correctly resolved lookups
+     */
+    private int countCorrect( PeerNode[] results ) {
+        int correct = 0;
+        for ( int i = 0; i < results.length; i++ ) {
+            if ( results[i] != null && isResponsible( results[i], "Key_" + i ) ) {
+                correct++;
+            }
+        }
+        return correct;
+    }
+
+
+    /**
+     * Counts the lookups of the SET or GET phase which did not resolve to the responsible node.
+     *
+     * @param nodes the resulting nodes by query number, null for queries which were not checked
+     * @param sets number of SET queries, which the keys of the GET queries repeat; 0 for the SET phase
+     * @return number of misrouted lookups
+     */
+    private int countMisrouted( PeerNode[] nodes, int sets ) {
+        int misrouted = 0;
+        for ( int i = 0; i < nodes.length; i++ ) {
+            if ( nodes[i] != null && !isResponsible( nodes[i], "Key_" + (sets == 0 ? i : i % sets) ) ) {
+                misrouted++;
+            }
+        }
+        return misrouted;
+    }
+
+
+    /**
+     * Checks a lookup result against the ring index. Peers with equal hashes are interchangeable. Always true for networks other than chord, where any peer may answer.
+     *
+     * @param node the result of the lookup
+     * @param key the key looked up
+     * @return true if the node is responsible for the key
+     */
+    private boolean isResponsible( PeerNode node, String key ) {
+        if ( !(network instanceof ChordNetwork) ) {
+            return true;
+        }
+        PeerNode expected = network.getRingIndex().ownerOf( network.hash( key ) );
+        return expected != null && expected.getNodeHash() == node.getNodeHash();
+    }
+
+
+    private List<ChordPeerImpl> chordPeers() {
+        List<ChordPeerImpl> peers = new ArrayList<ChordPeerImpl>();
+        for ( PeerNode p : network.getPeers() ) {
+            if ( p instanceof ChordPeerImpl ) {
+                peers.add( (ChordPeerImpl) p );
+            }
+        }
+        return peers;
+    }
+
+
+    /**
+     * Measures time and messages of one phase of the workload.
+     */
+    private final class Phase {
+
+        private final String name;
+        private final long start;
+        private final Map<Message.MessageType, Long> countsBefore;
+        private final LookupStatistics lookupsBefore;
+
+
+        private Phase( String name ) {
+            this.name = name;
+            this.countsBefore = network.getStatistics().snapshot();
+            this.lookupsBefore = network.getLookupStatistics().snapshot();
+            this.start = System.nanoTime();
+        }
+
+
+        private void end( int operations ) {
+            long elapsed = System.nanoTime() - start;
+            Map<Message.MessageType, Long> countsAfter = network.getStatistics().snapshot();
+            long messages = 0;
+            StringBuilder perType = new StringBuilder();
+            for ( Map.Entry<Message.MessageType, Long> e : countsAfter.entrySet() ) {
+                long delta = e.getValue() - countsBefore.get( e.getKey() );
+                if ( delta == 0 ) {
+                    continue;
+                }
+                messages += delta;
+                perType.append( String.format( Locale.ROOT, "    %-40s %12.2f / op%n", e.getKey(), perOperation( delta, operations ) ) );
+            }
+            double seconds = elapsed / 1e9;
+            out.println( String.format( Locale.ROOT, "%-10s %10d ops %10.1f ms %14.1f ops/s %10.2f msgs/op",
+                    name, operations, elapsed / 1e6, seconds > 0 ? operations / seconds : 0.0, perOperation( messages, operations ) ) );
+            out.print( perType );
+
+            LookupStatistics lookups = network.getLookupStatistics().since( lookupsBefore );
+            if ( lookups.getHops().getCount() > 0 ) {
+                Histogram hops = lookups.getHops();
+                Histogram latency = lookups.getLatencyNanos();
+                out.println( String.format( Locale.ROOT, "    %d lookups: hops p50 %d p99 %d max %d, closestPrecedingFinger calls p50 %d p99 %d, latency p50 %.1f us p99 %.1f us",
+                        hops.getCount(), hops.getValueAtPercentile( 50 ), hops.getValueAtPercentile( 99 ), hops.getMax(),
+                        lookups.getClosestPrecedingFingerCalls().getValueAtPercentile( 50 ), lookups.getClosestPrecedingFingerCalls().getValueAtPercentile( 99 ),
+                        latency.getValueAtPercentile( 50 ) / 1e3, latency.getValueAtPercentile( 99 ) / 1e3 ) );
+            }
+        }
+
+
+        private double perOperation( long count, int operations ) {
+            return operations == 0 ? 0.0 : (double) count / operations;
+        }
+    }
+}
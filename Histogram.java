@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Histogram of non-negative long values with log-linear buckets, in the style of HdrHistogram: values below 2^{@link #SUB_BUCKET_BITS} are counted exactly, larger values with a relative precision of 2^-{@link #SUB_BUCKET_BITS}. Recording is lock-free and does not allocate, so any number of threads may record concurrently.
+ */
+public final class Histogram {
+
+    /**
+     * Number of bits of linear resolution within each power of two.
+     */
+    public static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray( (64 - SUB_BUCKET_BITS) * SUB_BUCKETS );
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator( Math::max, 0 );
+
+
+    /**
+     * Records a value.
+     *
+     * @param value the value, not negative
+     */
+    public void record( long value ) {
+        if ( value < 0 ) {
+            throw new IllegalArgumentException( "Value must not be negative: " + value );
+        }
+        counts.incrementAndGet( indexOf( value ) );
+        totalCount.increment();
+        sum.add( value );
+        max.accumulate( value );
+    }
+
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return number of values
+     */
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0.0 : (double) sum.sum() / count;
+    }
+
+
+    public long getMax() {
+        return max.get();
+    }
+
+
+    /**
+     * Returns the value below or at which the given percentage of the recorded values lies. The result is exact for values below 2^{@link #SUB_BUCKET_BITS}, and the highest value equivalent to it (within the precision of the histogram) otherwise.
+     *
+     * @param percentile between 0 and 100
+     * @return the value at the percentile, 0 if no values were recorded
+     */
+    public long getValueAtPercentile( double percentile ) {
+        long count = getCount();
+        if ( count == 0 ) {
+            return 0;
+        }
+        long rank = Math.max( 1, (long) Math.ceil( Math.min( 100.0, percentile ) / 100.0 * count ) );
+        long seen = 0;
+        for ( int i = 0; i < counts.length(); i++ ) {
+            seen += counts.get( i );
+            if ( seen >= rank ) {
+                return Math.min( highestValueOf( i ), getMax() );
+            }
+        }
+        return getMax();
+    }
+
+
+    /**
+     * Returns a copy of the histogram, e.g., to obtain the values recorded afterwards by {@link #since(Histogram)}. Values recorded concurrently may or may not be included.
+     *
+     * @return the copy
+     */
+    public Histogram snapshot() {
+        Histogram copy = new Histogram();
+        for ( int i = 0; i < counts.length(); i++ ) {
+            long count = counts.get( i );
+            if ( count > 0 ) {
+                copy.counts.set( i, count );
+                copy.totalCount.add( count );
+            }
+        }
+        copy.sum.add( sum.sum() );
+        copy.max.accumulate( getMax() );
+        return copy;
+    }
+
+
+    /**
+     * Returns the values recorded since a snapshot of this histogram. The maximum is the highest value equivalent to the highest of these values, but not greater than the maximum of this histogram.
+     *
+     * @param earlier a snapshot of this histogram
+     * @return a new histogram of the values recorded since the snapshot
+     */
+    public Histogram since( Histogram earlier ) {
+        Histogram delta = new Histogram();
+        int highest = -1;
+        for ( int i = 0; i < counts.length(); i++ ) {
+            long count = counts.get( i ) - earlier.counts.get( i );
+            if ( count > 0 ) {
+                delta.counts.set( i, count );
+                delta.totalCount.add( count );
+                highest = i;
+            }
+        }
+        delta.sum.add( Math.max( 0, sum.sum() - earlier.sum.sum() ) );
+        if ( highest >= 0 ) {
+            delta.max.accumulate( Math.min( highestValueOf( highest ), getMax() ) );
+        }
+        return delta;
+    }
+
+
+    /**
+     * Resets the histogram. Values recorded concurrently may or may not be kept.
+     */
+    public void reset() {
+        for ( int i = 0; i < counts.length(); i++ ) {
+            counts.set( i, 0 );
+        }
+        totalCount.reset();
+        sum.reset();
+        max.reset();
+    }
+
+
+    private static int indexOf( long value ) {
+        if ( value < SUB_BUCKETS ) {
+            return (int) value;
+        }
+        // value lies within [2^e, 2^(e+1)), which is split into SUB_BUCKETS linear sub-buckets
+        int e = 63 - Long.numberOfLeadingZeros( value );
+        int shift = e - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+
+    private static long highestValueOf( int index ) {
+        int q = index >>> SUB_BUCKET_BITS;
+        if ( q == 0 ) {
+            return index;
+        }
+        long r = index & (SUB_BUCKETS - 1);
+        long lowest = (r + SUB_BUCKETS) << (q - 1);
+        return lowest + (1L << (q - 1)) - 1;
+    }
+}
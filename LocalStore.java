@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import java.util.Map;
+
+
+/**
+ * The data items stored locally at a peer. Implementations must be thread-safe, since queries, key handoffs and the user interface access the items from different threads.
+ *
+ * @see Network#setLocalStoreFactory(LocalStore.Factory)
+ */
+public interface LocalStore {
+
+    /**
+     * Creates the local store of a peer.
+     */
+    interface Factory {
+
+        /**
+         * Creates the store for a peer. Called from the constructor of the peer.
+         *
+         * @param network the network of the peer
+         * @param nodeID the node id of the peer
+         * @return an empty store
+         */
+        LocalStore create( Network network, String nodeID );
+    }
+
+
+    /**
+     * Factory for {@link SortedLocalStore}, the default of every network.
+     */
+    Factory SORTED = new Factory() {
+        @Override
+        public LocalStore create( Network network, String nodeID ) {
+            return new SortedLocalStore( network );
+        }
+    };
+
+    /**
+     * Factory for {@link HashOrderedLocalStore}.
+     */
+    Factory HASH_ORDERED = new Factory() {
+        @Override
+        public LocalStore create( Network network, String nodeID ) {
+            return new HashOrderedLocalStore( network );
+        }
+    };
+
+
+    /**
+     * Gets a data item.
+     *
+     * @param key of data item
+     * @return value of data item or null if not stored
+     */
+    String get( String key );
+
+
+    /**
+     * Stores a data item, replacing any previous value.
+     *
+     * @param key of data item
+     * @param value of data item
+     */
+    void put( String key, String value );
+
+
+    /**
+     * Stores a number of data items.
+     *
+     * @param items the data items
+     */
+    void putAll( Map<String, String> items );
+
+
+    /**
+     * Check if data item exists.
+     *
+     * @param key of data item
+     * @return true if exists
+     */
+    boolean containsKey( String key );
+
+
+    /**
+     * Removes and returns all data items whose key hash lies within the ring sector (fromExclusive, toInclusive]. If both are equal, the sector is the whole ring.
+     *
+     * @param fromExclusive start of the ring sector, exclusive
+     * @param toInclusive end of the ring sector, inclusive
+     * @return the removed data items, sorted by key
+     */
+    Map<String, String> extractRange( long fromExclusive, long toInclusive );
+
+
+    /**
+     * Removes and returns all data items.
+     *
+     * @return the removed data items, sorted by key
+     */
+    Map<String, String> extractAll();
+
+
+    /**
+     * Returns a copy of all data items.
+     *
+     * @return the data items, sorted by key
+     */
+    Map<String, String> snapshot();
+
+
+    /**
+     * Returns the number of data items.
+     *
+     * @return number of data items
+     */
+    int size();
+
+
+    /**
+     * Releases the resources held by the store, e.g., files, once its peer has left the network or failed. The data items are dropped, and items put afterwards may be dropped as well. Does nothing by default.
+     */
+    default void release() {
+    }
+}
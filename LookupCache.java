@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * Bounded cache of resolved lookups of a chord peer. Each entry maps the ring sector a node is responsible for, (predecessor, node], to the node, so one entry serves all keys of the sector. The entries are sorted by the end of their sectors, and the least recently used one is evicted once the cache is full.
+ * <p>
+ * An entry records the {@link ChordPeerImpl#getPointerVersion() pointer version} of its node. It is only used as long as the node is alive and its version unchanged, i.e., its predecessor and successor were not set since; otherwise it is dropped on access.
+ */
+final class LookupCache {
+
+    private static final class Entry {
+
+        private final long start;
+        private final long end;
+        private final ChordPeerImpl node;
+        private final int version;
+
+        /**
+         * Messages passed by the lookup which resolved the entry, i.e., saved by every hit.
+         */
+        private final long messages;
+
+        private Entry newer;
+        private Entry older;
+
+
+        private Entry( long start, long end, ChordPeerImpl node, int version, long messages ) {
+            this.start = start;
+            this.end = end;
+            this.node = node;
+            this.version = version;
+            this.messages = messages;
+        }
+    }
+
+
+    private final int capacity;
+    private final long mask;
+    private final MessageStatistics statistics;
+
+    /**
+     * The entries by the end of their sectors, i.e., the hash of their node.
+     */
+    private final TreeMap<Long, Entry> entries = new TreeMap<Long, Entry>();
+
+    /**
+     * Most and least recently used entries of the list of all entries in order of use.
+     */
+    private Entry newest;
+    private Entry oldest;
+
+
+    /**
+     * Constructor
+     *
+     * @param capacity maximum number of entries, at least 1
+     * @param numberOfBits bits of the identifier ring
+     * @param statistics receives the hits and misses
+     */
+    LookupCache( int capacity, int numberOfBits, MessageStatistics statistics ) {
+        this.capacity = capacity;
+        this.mask = (1L << numberOfBits) - 1;
+        this.statistics = statistics;
+    }
+
+
+    /**
+     * Returns the node responsible for a hash, if it is cached and still valid. Counts a hit or a miss.
+     *
+     * @param hash the hash
+     * @return the responsible node, or null
+     */
+    synchronized ChordPeerImpl get( long hash ) {
+        Map.Entry<Long, Entry> candidate = entries.ceilingEntry( hash );
+        if ( candidate == null ) {
+            // the sector of the node with the smallest hash wraps around zero
+            candidate = entries.firstEntry();
+        }
+        if ( candidate != null && contains( candidate.getValue(), hash ) ) {
+            Entry e = candidate.getValue();
+            if ( e.node.isAlive() && e.node.getPointerVersion() == e.version ) {
+                unlink( e );
+                linkNewest( e );
+                statistics.addLookupCacheHit( e.messages );
+                return e.node;
+            }
+            remove( e );
+        }
+        statistics.addLookupCacheMiss();
+        return null;
+    }
+
+
+    /**
+     * Caches the sector of a node.
+     *
+     * @param predecessorHash hash of the predecessor of the node, the exclusive start of the sector
+     * @param node the node
+     * @param version the pointer version of the node when its predecessor was read
+     * @param messages number of messages the lookup of the node passed
+     */
+    synchronized void put( long predecessorHash, ChordPeerImpl node, int version, long messages ) {
+        Entry previous = entries.get( node.n );
+        if ( previous != null ) {
+            remove( previous );
+        }
+        Entry e = new Entry( predecessorHash, node.n, node, version, messages );
+        entries.put( e.end, e );
+        linkNewest( e );
+        if ( entries.size() > capacity ) {
+            remove( oldest );
+        }
+    }
+
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+
+    /**
+     * Checks whether a hash lies in the sector (start, end] of an entry. If start equals end, the sector is the whole ring.
+     */
+    private boolean contains( Entry e, long hash ) {
+        long length = (e.end - e.start) & mask;
+        long distance = (hash - e.start) & mask;
+        return length == 0 || (distance != 0 && distance <= length);
+    }
+
+
+    private void remove( Entry e ) {
+        entries.remove( e.end );
+        unlink( e );
+    }
+
+
+    private void linkNewest( Entry e ) {
+        e.older = newest;
+        e.newer = null;
+        if ( newest != null ) {
+            newest.newer = e;
+        }
+        newest = e;
+        if ( oldest == null ) {
+            oldest = e;
+        }
+    }
+
+
+    private void unlink( Entry e ) {
+        if ( e.newer != null ) {
+            e.newer.older = e.older;
+        } else {
+            newest = e.older;
+        }
+        if ( e.older != null ) {
+            e.older.newer = e.newer;
+        } else {
+            oldest = e.newer;
+        }
+        e.newer = null;
+        e.older = null;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+/**
+ * Always-on distributions of the hop counts, closestPrecedingFinger() calls and latencies of all lookups in a network.
+ */
+public final class LookupStatistics {
+
+    private final Histogram hops;
+    private final Histogram closestPrecedingFingerCalls;
+    private final Histogram latencyNanos;
+
+
+    LookupStatistics() {
+        this( new Histogram(), new Histogram(), new Histogram() );
+    }
+
+
+    private LookupStatistics( Histogram hops, Histogram closestPrecedingFingerCalls, Histogram latencyNanos ) {
+        this.hops = hops;
+        this.closestPrecedingFingerCalls = closestPrecedingFingerCalls;
+        this.latencyNanos = latencyNanos;
+    }
+
+
+    /**
+     * Adds a completed lookup.
+     *
+     * @param trace the trace of the lookup
+     */
+    void record( LookupTrace trace ) {
+        hops.record( trace.getHops() );
+        closestPrecedingFingerCalls.record( trace.getClosestPrecedingFingerCalls() );
+        latencyNanos.record( Math.max( 0, trace.getLatencyNanos() ) );
+    }
+
+
+    public Histogram getHops() {
+        return hops;
+    }
+
+
+    public Histogram getClosestPrecedingFingerCalls() {
+        return closestPrecedingFingerCalls;
+    }
+
+
+    public Histogram getLatencyNanos() {
+        return latencyNanos;
+    }
+
+
+    /**
+     * Returns a copy of all distributions, e.g., to obtain the lookups completed afterwards by {@link #since(LookupStatistics)}.
+     *
+     * @return the copy
+     */
+    public LookupStatistics snapshot() {
+        return new LookupStatistics( hops.snapshot(), closestPrecedingFingerCalls.snapshot(), latencyNanos.snapshot() );
+    }
+
+
+    /**
+     * Returns the distributions of the lookups completed since a snapshot, without resetting these statistics.
+     *
+     * @param earlier a snapshot of these statistics
+     * @return new statistics of the lookups completed since the snapshot
+     */
+    public LookupStatistics since( LookupStatistics earlier ) {
+        return new LookupStatistics( hops.since( earlier.hops ), closestPrecedingFingerCalls.since( earlier.closestPrecedingFingerCalls ), latencyNanos.since( earlier.latencyNanos ) );
+    }
+
+
+    /**
+     * Resets all distributions.
+     */
+    public void reset() {
+        hops.reset();
+        closestPrecedingFingerCalls.reset();
+        latencyNanos.reset();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Records the course of a single lookup: the nodes the query visited, the number of hops, closestPrecedingFinger() calls and passed messages, and the latency. While a lookup runs, its trace is bound to the current thread, so the routing code can record into it without passing it along.
+ *
+ * @see PeerNode#traceLookup(PeerNode, String)
+ */
+public final class LookupTrace {
+
+    private static final ThreadLocal<LookupTrace> ACTIVE = new ThreadLocal<LookupTrace>();
+
+    private final String key;
+
+    /**
+     * The visited nodes, starting with the node the lookup was issued at; null if the path is not recorded.
+     */
+    private final List<PeerNode> path;
+
+    private PeerNode last;
+    private PeerNode result;
+    private int hops;
+    private int closestPrecedingFingerCalls;
+    private long messages;
+    private long startNanos;
+    private long endNanos;
+
+
+    /**
+     * Constructor
+     *
+     * @param entry the node the lookup is issued at
+     * @param key the key looked up
+     * @param recordPath whether the visited nodes are recorded, or only counted
+     */
+    LookupTrace( PeerNode entry, String key, boolean recordPath ) {
+        this.key = key;
+        this.last = entry;
+        this.path = recordPath ? new ArrayList<PeerNode>() : null;
+        if ( recordPath ) {
+            path.add( entry );
+        }
+    }
+
+
+    /**
+     * Returns the trace of the lookup running in the current thread.
+     *
+     * @return the active trace or null
+     */
+    static LookupTrace active() {
+        return ACTIVE.get();
+    }
+
+
+    /**
+     * Binds this trace to the current thread and starts the clock.
+     */
+    void start() {
+        ACTIVE.set( this );
+        startNanos = System.nanoTime();
+    }
+
+
+    /**
+     * Stops the clock, records the arrival at the resulting node and unbinds this trace from the current thread.
+     *
+     * @param result the node determined by the lookup, or null if it failed
+     */
+    void stop( PeerNode result ) {
+        endNanos = System.nanoTime();
+        ACTIVE.remove();
+        if ( result != null ) {
+            visit( result );
+        }
+        this.result = result;
+    }
+
+
+    /**
+     * Records that the query was forwarded to a node. Consecutive visits of the same node are no hop.
+     *
+     * @param node the node
+     */
+    void visit( PeerNode node ) {
+        if ( node == last ) {
+            return;
+        }
+        last = node;
+        hops++;
+        if ( path != null ) {
+            path.add( node );
+        }
+    }
+
+
+    void countClosestPrecedingFinger() {
+        closestPrecedingFingerCalls++;
+    }
+
+
+    void countMessage() {
+        messages++;
+    }
+
+
+    public String getKey() {
+        return key;
+    }
+
+
+    /**
+     * Returns the node determined by the lookup.
+     *
+     * @return the resulting node or null if the lookup failed
+     */
+    public PeerNode getResult() {
+        return result;
+    }
+
+
+    /**
+     * Returns the visited nodes, starting with the node the lookup was issued at and ending with the resulting node.
+     *
+     * @return unmodifiable path, empty if the path was not recorded
+     */
+    public List<PeerNode> getPath() {
+        return path == null ? Collections.<PeerNode>emptyList() : Collections.unmodifiableList( path );
+    }
+
+
+    /**
+     * Returns the number of times the query was forwarded to another node.
+     *
+     * @return number of hops
+     */
+    public int getHops() {
+        return hops;
+    }
+
+
+    public int getClosestPrecedingFingerCalls() {
+        return closestPrecedingFingerCalls;
+    }
+
+
+    /**
+     * Returns the number of messages passed by the lookup so far, i.e., by the current thread while the trace is active.
+     *
+     * @return number of messages
+     */
+    public long getMessages() {
+        return messages;
+    }
+
+
+    public long getLatencyNanos() {
+        return endNanos - startNanos;
+    }
+
+
+    @Override
+    public String toString() {
+        return "lookup of " + key + ": " + hops + " hops, " + closestPrecedingFingerCalls + " closestPrecedingFinger calls, " + getLatencyNanos() + " ns -> " + result;
+    }
+}
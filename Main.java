@@ -11,6 +11,9 @@ import com.github.rvesse.airline.annotations.Command;
 import com.github.rvesse.airline.annotations.DefaultOption;
 import com.github.rvesse.airline.annotations.Option;
 import com.github.rvesse.airline.annotations.help.Version;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.inject.Inject;
@@ -49,10 +52,84 @@ public class Main {
     @Option(name = { "--useSuccessorOnly" }, description = "Use only the successor relation an not the finger table.")
     private boolean useSuccessorOnly = false;
 
+    @Option(name = { "--headless" }, description = "Run a scripted workload without user interface and print throughput and message statistics. The workload joins '--initialNodes' nodes, runs '--stabilizationRounds' rounds of stabilization and then issues '--sets' SET and '--gets' GET queries.")
+    private boolean headless = false;
+
+    @Option(name = { "--sets" }, description = "Number of SET queries issued in headless mode. Default: 1000")
+    private int sets = 1000;
+
+    @Option(name = { "--gets" }, description = "Number of GET queries issued in headless mode. Default: 1000")
+    private int gets = 1000;
+
+    @Option(name = { "--stabilizationRounds" }, description = "Number of rounds in which every node stabilizes and fixes its fingers in headless mode. Default: 1")
+    private int stabilizationRounds = 1;
+
+    @Option(name = { "--bulkLoad" }, description = "Build the chord ring in headless mode in bulk, i.e., stable and with all fingers fixed, instead of by incremental joins.")
+    private boolean bulkLoad = false;
+
+    @Option(name = { "--restoreRing" }, description = "Snapshot file to restore the chord ring from in headless mode, instead of joining '--initialNodes' nodes.")
+    private String restoreRing = null;
+
+    @Option(name = { "--snapshotRing" }, description = "File to write a snapshot of the chord ring to in headless mode, after the SET queries. The snapshot can be restored with '--restoreRing'.")
+    private String snapshotRing = null;
+
+    @Option(name = { "--writeAheadLog" }, description = "File to log the SET queries to in headless mode, so the data items survive a crash. Records of earlier runs in the file are replayed after the ring is built.")
+    private String writeAheadLog = null;
+
+    @Option(name = { "--walBatchSize" }, description = "Number of bytes of logged SET queries after which they are written and forced to disk together. Default: " + WriteAheadLog.DEFAULT_BATCH_SIZE)
+    private int walBatchSize = WriteAheadLog.DEFAULT_BATCH_SIZE;
+
+    @Option(name = { "--walCommitInterval" }, description = "Maximum interval in milliseconds after which logged SET queries are written and forced to disk. Default: " + WriteAheadLog.DEFAULT_COMMIT_INTERVAL)
+    private long walCommitInterval = WriteAheadLog.DEFAULT_COMMIT_INTERVAL;
+
+    @Option(name = { "--walSync" }, description = "Complete SET queries only after they are forced to disk by '--writeAheadLog'. Otherwise the queries of up to one batch or interval may be lost in a crash.")
+    private boolean walSync = false;
+
+    @Option(name = { "--successorListLength" }, description = "Number of successors every chord peer keeps track of, to bridge failed nodes. Default: 1")
+    private int successorListLength = ChordNetwork.DEFAULT_SUCCESSOR_LIST_LENGTH;
+
+    @Option(name = { "--replicationFactor" }, description = "Number of copies of every data item in the chord ring: one at the responsible peer and one at each of its next successors. Reads in headless mode are then served by any replica. Default: 1")
+    private int replicationFactor = ChordNetwork.DEFAULT_REPLICATION_FACTOR;
+
+    @Option(name = { "--lookupCacheSize" }, description = "Number of resolved lookups every chord peer caches, each serving all keys of the ring sector of the resulting node until its pointers change. 0 disables the caches. Default: 0")
+    private int lookupCacheSize = 0;
+
+    @Option(name = { "--failFraction" }, description = "Fraction of the chord peers which fail simultaneously after the GET queries in headless mode. Lookups are then compared before and after the failure. Default: 0")
+    private double failFraction = 0;
+
+    @Option(name = { "--oracleRouting" }, description = "Resolve chord lookups directly by the sorted ring of all peers, without passing any messages. Baseline for comparing the routing against.")
+    private boolean oracleRouting = false;
+
+    @Option(name = { "--broadcastThreads" }, description = "Number of threads a peer of the FullyConnectedNetwork uses to query its connections concurrently when broadcasting. 0 queries them one after another. Default: 0")
+    private int broadcastThreads = 0;
+
+    @Option(name = { "--broadcastWaveSize" }, description = "Number of connections queried per broadcast wave in the FullyConnectedNetwork. 0 queries all connections in one wave. Default: 0")
+    private int broadcastWaveSize = 0;
+
+    @Option(name = { "--hashOrderedStore" }, description = "Keep the data items of every peer sorted by the ring hash of their keys instead of by key, so the items handed over on joins are extracted as one contiguous range.")
+    private boolean hashOrderedStore = false;
+
+    @Option(name = { "--mappedStore" }, description = "Directory to keep the data items of the peers in, in memory-mapped files off the heap. Each peer maps its own file unless '--sharedArena' is present.")
+    private String mappedStore = null;
+
+    @Option(name = { "--sharedArena" }, description = "Keep the data items of all peers in one memory-mapped file in '--mappedStore', e.g., for rings of many peers.")
+    private boolean sharedArena = false;
+
+    @Option(name = { "--eventLog" }, description = "File to write routing and maintenance events (finger changes, resolved lookups, failures) to. Events are discarded if this option is absent.")
+    private String eventLog = null;
+
+    @Option(name = { "--eventLevel" }, description = "Most verbose level of events written to '--eventLog': INFO, DEBUG (finger changes) or TRACE (resolved lookups). Default: DEBUG")
+    private EventSink.Level eventLevel = EventSink.Level.DEBUG;
+
     @Option(name = { "-cpc", "--chordPeerClass" }, description = "Name of the class which is used for the chord peers. Default: 'ch.unibas.dmi.dbis.fds.p2p.ChordPeerImpl'")
     @DefaultOption
     private String chordPeerClassName = ChordPeerImpl.class.getCanonicalName();
 
+    /**
+     * The arena shared by the stores of all peers, if '--sharedArena' is present; closed at the end of headless runs.
+     */
+    private MappedArena arena = null;
+
 
     public static void main( String[] args ) {
         SingleCommand<Main> parser = SingleCommand.singleCommand( Main.class );
@@ -68,7 +145,11 @@ public class Main {
                 main.chordPeerClassName = FullyConnectedPeer.class.getName();
             }
 
-            main.run();
+            if ( main.headless ) {
+                main.runHeadless();
+            } else {
+                main.run();
+            }
         }
     }
 
@@ -77,17 +158,111 @@ public class Main {
     }
 
 
-    private void run() {
+    private Network createNetwork() throws ClassNotFoundException, IOException {
+        final Class<? extends ChordPeerNode> chordPeerClass = (Class<? extends ChordPeerNode>) Class.forName( chordPeerClassName );
+
+        final Network network;
+        if ( fcn ) {
+            network = Network.newFullyConnectedNetwork( networkBits );
+            if ( broadcastThreads > 0 ) {
+                ((FullyConnectedNetwork) network).setBroadcastExecutor( new ForkJoinPool( broadcastThreads ) );
+            }
+            ((FullyConnectedNetwork) network).setBroadcastWaveSize( broadcastWaveSize );
+        } else {
+            network = Network.newChordNetwork( networkBits, chordPeerClass );
+            ((ChordNetwork) network).getStabilizationScheduler().setInterval( stabilizeInterval );
+            ((ChordNetwork) network).setSuccessorListLength( successorListLength );
+            ((ChordNetwork) network).setOracleRouting( oracleRouting );
+            ((ChordNetwork) network).setReplicationFactor( replicationFactor );
+            ((ChordNetwork) network).setLookupCacheSize( lookupCacheSize );
+        }
+        if ( mappedStore != null ) {
+            File directory = new File( mappedStore );
+            if ( !directory.isDirectory() && !directory.mkdirs() ) {
+                throw new IllegalArgumentException( "Cannot create the directory " + directory + "." );
+            }
+            if ( sharedArena ) {
+                arena = MappedArena.inDirectory( directory, "arena", MappedArena.DEFAULT_CHUNK_SIZE );
+                network.setLocalStoreFactory( MappedLocalStore.shared( arena ) );
+            } else {
+                network.setLocalStoreFactory( MappedLocalStore.perPeer( directory, MappedArena.DEFAULT_CHUNK_SIZE ) );
+            }
+        } else if ( hashOrderedStore ) {
+            network.setLocalStoreFactory( LocalStore.HASH_ORDERED );
+        }
+        if ( eventLog != null ) {
+            network.setEventSink( AsyncEventSink.open( new File( eventLog ), eventLevel ) );
+        }
+        return network;
+    }
+
+
+    private void runHeadless() {
+        System.setProperty( "java.awt.headless", "true" );
         try {
+            final Network network = createNetwork();
+            try {
+                if ( network instanceof ChordNetwork ) {
+                    // stabilization is part of the scripted workload
+                    ((ChordNetwork) network).getStabilizationScheduler().setInterval( 0 );
+                }
+
+                WriteAheadLog wal = null;
+                if ( writeAheadLog != null ) {
+                    wal = WriteAheadLog.open( new File( writeAheadLog ), walBatchSize, walCommitInterval, walSync );
+                }
+                try {
+                    new HeadlessSimulation( network, useSuccessorOnly, System.out )
+                            .setJoins( initialNodes )
+                            .setStabilizationRounds( stabilizationRounds )
+                            .setSets( sets )
+                            .setGets( gets )
+                            .setFailFraction( failFraction )
+                            .setBulkLoad( bulkLoad )
+                            .setRestoreFrom( restoreRing == null ? null : new File( restoreRing ) )
+                            .setSnapshotTo( snapshotRing == null ? null : new File( snapshotRing ) )
+                            .setWriteAheadLog( wal )
+                            .run();
+                } finally {
+                    // forces the pending batch, also if the run failed
+                    if ( wal != null ) {
+                        wal.close();
+                    }
+                }
+            } finally {
+                closeHeadless( network );
+            }
+        } catch ( Throwable t ) {
+            log.log( Level.SEVERE, "Uncaught exception", t );
+        }
+    }
 
-            final Class<? extends ChordPeerNode> chordPeerClass = (Class<? extends ChordPeerNode>) Class.forName( chordPeerClassName );
 
-            final Network network;
-            if ( fcn ) {
-                network = Network.newFullyConnectedNetwork( networkBits );
-            } else {
-                network = Network.newChordNetwork( networkBits, chordPeerClass );
+    /**
+     * Stops the stabilization and closes the event sink and the shared arena of a headless run, each also if closing the previous one failed.
+     */
+    private void closeHeadless( Network network ) throws IOException {
+        try {
+            if ( network instanceof ChordNetwork ) {
+                ((ChordNetwork) network).getStabilizationScheduler().shutdown();
+            }
+        } finally {
+            try {
+                if ( network.getEventSink() instanceof AsyncEventSink ) {
+                    ((AsyncEventSink) network.getEventSink()).close();
+                }
+            } finally {
+                if ( arena != null ) {
+                    arena.close();
+                }
             }
+        }
+    }
+
+
+    private void run() {
+        try {
+            final Network network = createNetwork();
 
             GuiFrame frame = new GuiFrame( network, fingerUpdateInterval, stabilizeInterval, useSuccessorOnly );
 
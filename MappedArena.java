@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+
+/**
+ * A file mapped into memory, handed out in chunks of a fixed size to {@link MappedLocalStore}s. The file is mapped in regions as chunks are needed, each region as large as all previous ones together, up to 1 GiB; it is created on first use and deleted when closed or on exit. The file is only open while a region is mapped, so arenas hold no file descriptors, only their mappings. One arena may be shared by the stores of all peers, which keeps the number of files and mappings independent of the number of peers.
+ */
+public final class MappedArena implements Closeable {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    private static final int MAX_REGION_SIZE = 1 << 30;
+
+    private final File directory;
+    private final String prefix;
+    private final int chunkSize;
+
+    private File file;
+
+    private boolean closed;
+    private ByteBuffer[] chunks = new ByteBuffer[0];
+    private int allocatedChunks;
+    private int[] freeChunks = new int[16];
+    private int freeCount;
+
+
+    /**
+     * Constructor
+     *
+     * @param file the file to map; overwritten
+     * @param chunkSize size of a chunk in bytes, a power of two of at most 1 GiB; also the maximum size of a data item
+     */
+    public MappedArena( File file, int chunkSize ) {
+        this( file, null, null, chunkSize );
+    }
+
+
+    private MappedArena( File file, File directory, String prefix, int chunkSize ) {
+        if ( Integer.bitCount( chunkSize ) != 1 || chunkSize > MAX_REGION_SIZE ) {
+            throw new IllegalArgumentException( "chunkSize must be a power of two of at most " + MAX_REGION_SIZE + "." );
+        }
+        this.file = file;
+        this.directory = directory;
+        this.prefix = prefix;
+        this.chunkSize = chunkSize;
+    }
+
+
+    /**
+     * Creates an arena in a new file in a directory, named after a prefix. The file is created when the first chunk is allocated.
+     *
+     * @param directory the directory
+     * @param prefix prefix of the file name
+     * @param chunkSize size of a chunk in bytes
+     * @return the arena
+     */
+    static MappedArena inDirectory( File directory, String prefix, int chunkSize ) {
+        return new MappedArena( null, directory, prefix, chunkSize );
+    }
+
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+
+    /**
+     * Returns the number of chunks mapped so far, whether in use or free.
+     *
+     * @return number of mapped chunks
+     */
+    public synchronized int getMappedChunks() {
+        return chunks.length;
+    }
+
+
+    /**
+     * Hands out a chunk, mapping a new region of the file if no free chunk is left.
+     *
+     * @return id of the chunk
+     * @throws UncheckedIOException if the file cannot be extended
+     * @throws IllegalStateException if the arena is closed
+     */
+    synchronized int allocate() {
+        if ( closed ) {
+            throw new IllegalStateException( "The arena " + file + " is closed." );
+        }
+        if ( freeCount > 0 ) {
+            return freeChunks[--freeCount];
+        }
+        if ( allocatedChunks == chunks.length ) {
+            mapRegion();
+        }
+        return allocatedChunks++;
+    }
+
+
+    /**
+     * Returns a chunk to the arena. Its content is kept until the chunk is handed out again.
+     *
+     * @param chunk id of the chunk
+     */
+    synchronized void free( int chunk ) {
+        if ( freeCount == freeChunks.length ) {
+            freeChunks = Arrays.copyOf( freeChunks, 2 * freeCount );
+        }
+        freeChunks[freeCount++] = chunk;
+    }
+
+
+    /**
+     * Returns the buffer of a chunk, with capacity chunk size. The buffer must only be used by the current owner of the chunk, as its position is not shared.
+     *
+     * @param chunk id of the chunk
+     * @return the buffer
+     */
+    synchronized ByteBuffer buffer( int chunk ) {
+        return chunks[chunk];
+    }
+
+
+    private void mapRegion() {
+        try {
+            if ( file == null ) {
+                file = createFile();
+            }
+            int first = chunks.length;
+            int regionChunks = Math.max( 1, Math.min( first, MAX_REGION_SIZE / chunkSize ) );
+            ByteBuffer region;
+            // the mapping stays valid after the channel is closed
+            try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" ) ) {
+                region = raf.getChannel().map( FileChannel.MapMode.READ_WRITE, (long) first * chunkSize, (long) regionChunks * chunkSize );
+            }
+            chunks = Arrays.copyOf( chunks, first + regionChunks );
+            for ( int i = 0; i < regionChunks; i++ ) {
+                region.limit( (i + 1) * chunkSize ).position( i * chunkSize );
+                chunks[first + i] = region.slice();
+            }
+        } catch ( IOException e ) {
+            throw new UncheckedIOException( "Cannot map " + file, e );
+        }
+    }
+
+
+    private File createFile() throws IOException {
+        StringBuilder name = new StringBuilder( prefix.length() + 1 );
+        for ( int i = 0; i < prefix.length(); i++ ) {
+            char c = prefix.charAt( i );
+            name.append( Character.isLetterOrDigit( c ) || c == '-' || c == '_' ? c : '_' );
+        }
+        while ( name.length() < 3 ) {
+            name.append( '_' );
+        }
+        File created = File.createTempFile( name.append( '-' ).toString(), ".seg", directory );
+        created.deleteOnExit();
+        return created;
+    }
+
+
+    /**
+     * Closes the arena, deleting its file if it was created by the arena. No chunks can be allocated afterwards. The mapped memory is released once it is no longer referenced.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        chunks = new ByteBuffer[0];
+        freeCount = 0;
+        if ( directory != null && file != null ) {
+            file.delete();
+        }
+    }
+}
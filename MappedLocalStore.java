@@ -0,0 +1,442 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * Local store keeping keys and values off the heap, in chunks of a {@link MappedArena}. Items are appended as records of ring hash, key and value; the heap only holds an open-addressing index of 12 bytes per slot, which maps the String hash code of a key to the address of its record. Replaced and removed records are reclaimed by compacting the store once less than half of its chunks is live.
+ * <p>
+ * Extracting a ring sector reads the stored ring hashes, so no key is hashed again.
+ */
+public final class MappedLocalStore implements LocalStore {
+
+    /**
+     * Size of the record header: ring hash, key length and value length.
+     */
+    private static final int HEADER_SIZE = 16;
+
+    private static final long EMPTY = -1L;
+
+
+    /**
+     * Returns a factory creating a store with its own arena file in a directory per peer. Every peer maps its own files, one for its data items and one for its replicas, which are only open while a region is mapped and are deleted when the peer leaves or fails. Each region is a mapping of its own, so this suits networks of up to some thousand peers.
+     *
+     * @param directory the directory of the files
+     * @param chunkSize chunk size of the arenas, see {@link MappedArena#MappedArena(File, int)}
+     * @return the factory
+     */
+    public static LocalStore.Factory perPeer( final File directory, final int chunkSize ) {
+        return new LocalStore.Factory() {
+            @Override
+            public LocalStore create( Network network, String nodeID ) {
+                return new MappedLocalStore( network, MappedArena.inDirectory( directory, nodeID, chunkSize ), true );
+            }
+        };
+    }
+
+
+    /**
+     * Returns a factory creating stores which all share one arena.
+     *
+     * @param arena the arena
+     * @return the factory
+     */
+    public static LocalStore.Factory shared( final MappedArena arena ) {
+        return new LocalStore.Factory() {
+            @Override
+            public LocalStore create( Network network, String nodeID ) {
+                return new MappedLocalStore( network, arena );
+            }
+        };
+    }
+
+
+    private final Network network;
+    private final MappedArena arena;
+    private final int chunkSize;
+
+    /**
+     * Whether the arena is closed with the store, i.e., is not shared.
+     */
+    private final boolean ownsArena;
+
+    /**
+     * Set by {@link #release()}, after which items are dropped.
+     */
+    private boolean released;
+
+    /**
+     * The arena chunks owned by this store and their buffers. Records are appended to the last one.
+     */
+    private int[] chunks = new int[0];
+    private ByteBuffer[] buffers = new ByteBuffer[0];
+    private int writeOffset;
+    private long liveBytes;
+
+    /**
+     * The index: addresses of the records (chunk of this store in the upper, offset in the lower 32 bits) and the String hash codes of their keys. Linear probing, at most half full.
+     */
+    private long[] addresses = newAddresses( 16 );
+    private int[] keyHashes = new int[16];
+    private int size;
+
+
+    public MappedLocalStore( Network network, MappedArena arena ) {
+        this( network, arena, false );
+    }
+
+
+    private MappedLocalStore( Network network, MappedArena arena, boolean ownsArena ) {
+        this.network = network;
+        this.arena = arena;
+        this.chunkSize = arena.getChunkSize();
+        this.ownsArena = ownsArena;
+    }
+
+
+    @Override
+    public synchronized String get( String key ) {
+        int slot = find( key, key.getBytes( StandardCharsets.UTF_8 ) );
+        return slot < 0 ? null : readValue( addresses[slot] );
+    }
+
+
+    @Override
+    public synchronized void put( String key, String value ) {
+        if ( released ) {
+            return;
+        }
+        byte[] keyBytes = key.getBytes( StandardCharsets.UTF_8 );
+        byte[] valueBytes = value.getBytes( StandardCharsets.UTF_8 );
+        long address = append( network.hash( key ), keyBytes, valueBytes );
+        int slot = find( key, keyBytes );
+        if ( slot >= 0 ) {
+            liveBytes -= recordSize( addresses[slot] );
+            addresses[slot] = address;
+        } else {
+            insert( key.hashCode(), address );
+        }
+        liveBytes += HEADER_SIZE + keyBytes.length + valueBytes.length;
+    }
+
+
+    @Override
+    public synchronized void putAll( Map<String, String> items ) {
+        for ( Map.Entry<String, String> item : items.entrySet() ) {
+            put( item.getKey(), item.getValue() );
+        }
+    }
+
+
+    @Override
+    public synchronized boolean containsKey( String key ) {
+        return find( key, key.getBytes( StandardCharsets.UTF_8 ) ) >= 0;
+    }
+
+
+    @Override
+    public synchronized Map<String, String> extractRange( long fromExclusive, long toInclusive ) {
+        Map<String, String> extracted = new TreeMap<String, String>();
+        for ( int slot = 0; slot < addresses.length; slot++ ) {
+            long address = addresses[slot];
+            if ( address != EMPTY && network.isHashElementOf( buffer( address ).getLong( offset( address ) ), fromExclusive, toInclusive, false, true ) ) {
+                extracted.put( readKey( address ), readValue( address ) );
+            }
+        }
+        // removed after the scan, since removing shifts the following slots
+        for ( String key : extracted.keySet() ) {
+            remove( find( key, key.getBytes( StandardCharsets.UTF_8 ) ) );
+        }
+        compactIfSparse();
+        return extracted;
+    }
+
+
+    @Override
+    public synchronized Map<String, String> extractAll() {
+        Map<String, String> extracted = snapshot();
+        clear();
+        return extracted;
+    }
+
+
+    private void clear() {
+        for ( int chunk : chunks ) {
+            arena.free( chunk );
+        }
+        chunks = new int[0];
+        buffers = new ByteBuffer[0];
+        writeOffset = 0;
+        liveBytes = 0;
+        addresses = newAddresses( 16 );
+        keyHashes = new int[16];
+        size = 0;
+    }
+
+
+    /**
+     * Returns the chunks of this store to the arena, and closes the arena if it was created for this store alone, which deletes its file.
+     */
+    @Override
+    public synchronized void release() {
+        clear();
+        released = true;
+        if ( ownsArena ) {
+            try {
+                arena.close();
+            } catch ( IOException e ) {
+                throw new UncheckedIOException( "Cannot close the arena of a store", e );
+            }
+        }
+    }
+
+
+    @Override
+    public synchronized Map<String, String> snapshot() {
+        Map<String, String> snapshot = new TreeMap<String, String>();
+        for ( long address : addresses ) {
+            if ( address != EMPTY ) {
+                snapshot.put( readKey( address ), readValue( address ) );
+            }
+        }
+        return snapshot;
+    }
+
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+
+    /**
+     * Returns the number of arena chunks held by this store.
+     *
+     * @return number of chunks
+     */
+    public synchronized int getChunks() {
+        return chunks.length;
+    }
+
+
+    private static long[] newAddresses( int capacity ) {
+        long[] a = new long[capacity];
+        Arrays.fill( a, EMPTY );
+        return a;
+    }
+
+
+    private ByteBuffer buffer( long address ) {
+        return buffers[(int) (address >>> 32)];
+    }
+
+
+    private static int offset( long address ) {
+        return (int) address;
+    }
+
+
+    private int recordSize( long address ) {
+        ByteBuffer b = buffer( address );
+        int offset = offset( address );
+        return HEADER_SIZE + b.getInt( offset + 8 ) + b.getInt( offset + 12 );
+    }
+
+
+    private String readKey( long address ) {
+        ByteBuffer b = buffer( address );
+        int offset = offset( address );
+        return readString( b, offset + HEADER_SIZE, b.getInt( offset + 8 ) );
+    }
+
+
+    private String readValue( long address ) {
+        ByteBuffer b = buffer( address );
+        int offset = offset( address );
+        int keyLength = b.getInt( offset + 8 );
+        return readString( b, offset + HEADER_SIZE + keyLength, b.getInt( offset + 12 ) );
+    }
+
+
+    private static String readString( ByteBuffer b, int offset, int length ) {
+        byte[] bytes = new byte[length];
+        b.position( offset );
+        b.get( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+
+    /**
+     * Appends a record to the last chunk, taking a new chunk from the arena if it is full.
+     *
+     * @return the address of the record
+     */
+    private long append( long ringHash, byte[] key, byte[] value ) {
+        int length = HEADER_SIZE + key.length + value.length;
+        if ( length > chunkSize ) {
+            throw new IllegalArgumentException( "Data item of " + length + " bytes exceeds the chunk size of " + chunkSize + " bytes." );
+        }
+        if ( chunks.length == 0 || writeOffset + length > chunkSize ) {
+            compactIfSparse();
+            if ( chunks.length == 0 || writeOffset + length > chunkSize ) {
+                addChunk();
+            }
+        }
+        ByteBuffer b = buffers[chunks.length - 1];
+        int offset = writeOffset;
+        b.position( offset );
+        b.putLong( ringHash ).putInt( key.length ).putInt( value.length ).put( key ).put( value );
+        writeOffset += length;
+        return ((long) (chunks.length - 1) << 32) | offset;
+    }
+
+
+    private void addChunk() {
+        int chunk = arena.allocate();
+        chunks = Arrays.copyOf( chunks, chunks.length + 1 );
+        buffers = Arrays.copyOf( buffers, buffers.length + 1 );
+        chunks[chunks.length - 1] = chunk;
+        buffers[buffers.length - 1] = arena.buffer( chunk );
+        writeOffset = 0;
+    }
+
+
+    /**
+     * Copies all live records into new chunks and returns the old ones to the arena, if less than half of the full chunks is live.
+     */
+    private void compactIfSparse() {
+        if ( chunks.length < 2 || liveBytes >= (long) (chunks.length - 1) * chunkSize / 2 ) {
+            return;
+        }
+        int[] oldChunks = chunks;
+        ByteBuffer[] oldBuffers = buffers;
+        chunks = new int[0];
+        buffers = new ByteBuffer[0];
+        for ( int slot = 0; slot < addresses.length; slot++ ) {
+            long address = addresses[slot];
+            if ( address == EMPTY ) {
+                continue;
+            }
+            ByteBuffer from = oldBuffers[(int) (address >>> 32)];
+            int offset = offset( address );
+            int length = HEADER_SIZE + from.getInt( offset + 8 ) + from.getInt( offset + 12 );
+            if ( chunks.length == 0 || writeOffset + length > chunkSize ) {
+                addChunk();
+            }
+            ByteBuffer record = from.duplicate();
+            record.limit( offset + length ).position( offset );
+            ByteBuffer to = buffers[chunks.length - 1];
+            to.position( writeOffset );
+            to.put( record );
+            addresses[slot] = ((long) (chunks.length - 1) << 32) | writeOffset;
+            writeOffset += length;
+        }
+        for ( int chunk : oldChunks ) {
+            arena.free( chunk );
+        }
+    }
+
+
+    private int home( int keyHash ) {
+        int h = keyHash * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (addresses.length - 1);
+    }
+
+
+    /**
+     * Returns the slot of a key, or -1 if it is not stored.
+     */
+    private int find( String key, byte[] keyBytes ) {
+        int keyHash = key.hashCode();
+        int mask = addresses.length - 1;
+        for ( int slot = home( keyHash ); addresses[slot] != EMPTY; slot = (slot + 1) & mask ) {
+            if ( keyHashes[slot] == keyHash && keyEquals( addresses[slot], keyBytes ) ) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+
+    private boolean keyEquals( long address, byte[] keyBytes ) {
+        ByteBuffer b = buffer( address );
+        int offset = offset( address );
+        if ( b.getInt( offset + 8 ) != keyBytes.length ) {
+            return false;
+        }
+        offset += HEADER_SIZE;
+        for ( int i = 0; i < keyBytes.length; i++ ) {
+            if ( b.get( offset + i ) != keyBytes[i] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private void insert( int keyHash, long address ) {
+        if ( 2 * (size + 1) > addresses.length ) {
+            resize( 2 * addresses.length );
+        }
+        int mask = addresses.length - 1;
+        int slot = home( keyHash );
+        while ( addresses[slot] != EMPTY ) {
+            slot = (slot + 1) & mask;
+        }
+        addresses[slot] = address;
+        keyHashes[slot] = keyHash;
+        size++;
+    }
+
+
+    private void resize( int capacity ) {
+        long[] oldAddresses = addresses;
+        int[] oldKeyHashes = keyHashes;
+        addresses = newAddresses( capacity );
+        keyHashes = new int[capacity];
+        size = 0;
+        for ( int i = 0; i < oldAddresses.length; i++ ) {
+            if ( oldAddresses[i] != EMPTY ) {
+                insert( oldKeyHashes[i], oldAddresses[i] );
+            }
+        }
+    }
+
+
+    /**
+     * Removes a slot, shifting back the following slots of the same probe sequence, so no tombstones are needed.
+     */
+    private void remove( int slot ) {
+        liveBytes -= recordSize( addresses[slot] );
+        int mask = addresses.length - 1;
+        int next = slot;
+        while ( true ) {
+            next = (next + 1) & mask;
+            if ( addresses[next] == EMPTY ) {
+                break;
+            }
+            int home = home( keyHashes[next] );
+            // the entry at next may fill the gap unless its home lies cyclically in (slot, next]
+            boolean stays = slot <= next ? (slot < home && home <= next) : (slot < home || home <= next);
+            if ( !stays ) {
+                addresses[slot] = addresses[next];
+                keyHashes[slot] = keyHashes[next];
+                slot = next;
+            }
+        }
+        addresses[slot] = EMPTY;
+        size--;
+    }
+}
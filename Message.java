@@ -27,61 +27,67 @@ public class Message {
         CHORD_CLOSEST_PRECEDING_FINGER, CHORD_CLOSEST_PRECEDING_FINGER_RESPONSE,
         CHORD_NOTIFY, CHORD_NOTIFY_RESPONSE,
         CHORD_STABILIZE, CHORD_STABILIZE_RESPONSE,
+        CHORD_TRANSFER_KEYS, CHORD_TRANSFER_KEYS_RESPONSE,
+        CHORD_LEAVE, CHORD_LEAVE_RESPONSE,
+        CHORD_GET_SUCCESSOR_LIST, CHORD_GET_SUCCESSOR_LIST_RESPONSE,
+        CHORD_REPLICATE, CHORD_REPLICATE_RESPONSE,
+        CHORD_REPAIR_REPLICAS, CHORD_REPAIR_REPLICAS_RESPONSE,
     }
 
 
     /**
      * Message type of this message.
      */
-    private MessageType msgType;
+    private final MessageType msgType;
 
     /**
-     * Source node id of message.
+     * Source node hash of message, {@link MessageLog#CLIENT} for the client app.
      */
-    private String sourceNodeId;
+    private final long sourceHash;
 
     /**
-     * Destination node id of message.
+     * Destination node hash of message, {@link MessageLog#CLIENT} for the client app.
      */
-    private String destinationNodeId;
+    private final long destinationHash;
 
     /**
-     * Timestamp of message creation.
+     * Timestamp of message creation, as returned by {@link System#nanoTime()}.
      */
-    private long timestamp;
+    private final long timestamp;
 
 
     /**
      * Constructor
      *
-     * @param fromID sender node id
-     * @param toID receiver node id
+     * @param fromHash sender node hash
+     * @param toHash receiver node hash
+     * @param timestamp timestamp of message creation
      */
-    public Message( MessageType msgType, String fromID, String toID ) {
+    public Message( MessageType msgType, long fromHash, long toHash, long timestamp ) {
         this.msgType = msgType;
-        this.sourceNodeId = fromID;
-        this.destinationNodeId = toID;
-        this.timestamp = System.currentTimeMillis();
+        this.sourceHash = fromHash;
+        this.destinationHash = toHash;
+        this.timestamp = timestamp;
     }
 
 
     /**
-     * Returns the receiver node id.
+     * Returns the receiver node hash.
      *
-     * @return receiver node id
+     * @return receiver node hash, {@link MessageLog#CLIENT} for the client app
      */
-    public String getDestinationNodeId() {
-        return destinationNodeId;
+    public long getDestinationHash() {
+        return destinationHash;
     }
 
 
     /**
-     * Returns the sender node id.
+     * Returns the sender node hash.
      *
-     * @return sender node id
+     * @return sender node hash, {@link MessageLog#CLIENT} for the client app
      */
-    public String getSourceNodeId() {
-        return sourceNodeId;
+    public long getSourceHash() {
+        return sourceHash;
     }
 
 
@@ -107,6 +113,11 @@ public class Message {
 
     @Override
     public String toString() {
-        return timestamp + " " + msgType + " " + sourceNodeId + " -> " + destinationNodeId;
+        return timestamp + " " + msgType + " " + nodeToString( sourceHash ) + " -> " + nodeToString( destinationHash );
+    }
+
+
+    private static String nodeToString( long hash ) {
+        return hash == MessageLog.CLIENT ? "client" : String.valueOf( hash );
     }
 }
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Fixed-capacity log of passed messages. Messages are stored as primitive records (type, source and destination hash, timestamp) in a ring buffer that any number of threads may append to without locking. Once the log is full, new messages either overwrite the oldest ones or are dropped, depending on the {@link OverflowPolicy}.
+ * <p>
+ * Readers never block writers: a record which is being overwritten while it is read is skipped.
+ */
+public final class MessageLog {
+
+    /**
+     * What to do with new messages once the log is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Overwrite the oldest messages, i.e., keep the most recent history.
+         */
+        OVERWRITE,
+        /**
+         * Drop new messages, i.e., keep the oldest history.
+         */
+        DROP
+    }
+
+
+    /**
+     * Receives the records of the log in the order they were appended.
+     */
+    public interface Visitor {
+
+        /**
+         * @param msgType message type
+         * @param sourceHash hash of the sender, or {@link MessageLog#CLIENT} if sent by the client app
+         * @param destinationHash hash of the receiver, or {@link MessageLog#CLIENT} if sent to the client app
+         * @param timestamp value of {@link System#nanoTime()} when the message was logged
+         */
+        void visit( Message.MessageType msgType, long sourceHash, long destinationHash, long timestamp );
+    }
+
+
+    /**
+     * Hash used for the client app as sender or receiver of a message.
+     */
+    public static final long CLIENT = -1;
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /**
+     * Record layout within the slots array: sequence number, type ordinal, source hash, destination hash, timestamp.
+     */
+    private static final int STRIDE = 5;
+
+    /**
+     * Sequence number marking a record that is being written.
+     */
+    private static final long WRITING = -1;
+
+    private static final Message.MessageType[] TYPES = Message.MessageType.values();
+
+    private final AtomicLongArray slots;
+    private final int capacity;
+    private final OverflowPolicy policy;
+
+    /**
+     * The sequence number of the next message to be appended.
+     */
+    private final AtomicLong cursor = new AtomicLong();
+
+    /**
+     * The sequence number of the first message after the last {@link #clear()}.
+     */
+    private volatile long base;
+
+    private final LongAdder dropped = new LongAdder();
+
+
+    /**
+     * Constructor
+     *
+     * @param capacity maximum number of retained messages, rounded up to a power of two
+     * @param policy what to do with new messages once the log is full
+     */
+    public MessageLog( int capacity, OverflowPolicy policy ) {
+        if ( capacity < 1 || capacity > (1 << 26) ) {
+            throw new IllegalArgumentException( "Capacity: " + capacity + " not supported!" );
+        }
+        int c = Integer.highestOneBit( capacity );
+        if ( c < capacity ) {
+            c <<= 1;
+        }
+        this.capacity = c;
+        this.policy = policy;
+        this.slots = new AtomicLongArray( c * STRIDE );
+        for ( int i = 0; i < c; i++ ) {
+            // no record has sequence number -1 (WRITING), so empty slots are never read
+            slots.set( i * STRIDE, WRITING );
+        }
+    }
+
+
+    /**
+     * Appends a message.
+     *
+     * @param msgType message type
+     * @param sourceHash hash of the sender or {@link #CLIENT}
+     * @param destinationHash hash of the receiver or {@link #CLIENT}
+     * @return false if the message was dropped because the log is full
+     */
+    public boolean append( Message.MessageType msgType, long sourceHash, long destinationHash ) {
+        long seq;
+        if ( policy == OverflowPolicy.DROP ) {
+            do {
+                seq = cursor.get();
+                if ( seq - base >= capacity ) {
+                    dropped.increment();
+                    return false;
+                }
+            } while ( !cursor.compareAndSet( seq, seq + 1 ) );
+        } else {
+            seq = cursor.getAndIncrement();
+        }
+        int i = (int) (seq & (capacity - 1)) * STRIDE;
+        slots.set( i, WRITING );
+        slots.lazySet( i + 1, msgType.ordinal() );
+        slots.lazySet( i + 2, sourceHash );
+        slots.lazySet( i + 3, destinationHash );
+        slots.lazySet( i + 4, System.nanoTime() );
+        // publishes the record
+        slots.lazySet( i, seq );
+        return true;
+    }
+
+
+    /**
+     * Streams the retained messages, oldest first, to a visitor without copying the log.
+     *
+     * @param visitor the visitor
+     * @return the number of visited messages
+     */
+    public int forEach( Visitor visitor ) {
+        long end = cursor.get();
+        long start = Math.max( base, end - capacity );
+        int visited = 0;
+        for ( long seq = start; seq < end; seq++ ) {
+            int i = (int) (seq & (capacity - 1)) * STRIDE;
+            if ( slots.get( i ) != seq ) {
+                // still being written or already overwritten
+                continue;
+            }
+            int type = (int) slots.get( i + 1 );
+            long sourceHash = slots.get( i + 2 );
+            long destinationHash = slots.get( i + 3 );
+            long timestamp = slots.get( i + 4 );
+            if ( slots.get( i ) != seq ) {
+                continue;
+            }
+            visitor.visit( TYPES[type], sourceHash, destinationHash, timestamp );
+            visited++;
+        }
+        return visited;
+    }
+
+
+    /**
+     * Returns a snapshot of the retained messages, oldest first.
+     *
+     * @return list of messages
+     */
+    public List<Message> snapshot() {
+        final List<Message> messages = new ArrayList<Message>( size() );
+        forEach( new Visitor() {
+            @Override
+            public void visit( Message.MessageType msgType, long sourceHash, long destinationHash, long timestamp ) {
+                messages.add( new Message( msgType, sourceHash, destinationHash, timestamp ) );
+            }
+        } );
+        return messages;
+    }
+
+
+    /**
+     * Returns the number of retained messages.
+     *
+     * @return number of messages
+     */
+    public int size() {
+        return (int) Math.min( cursor.get() - base, capacity );
+    }
+
+
+    /**
+     * Discards all retained messages.
+     */
+    public void clear() {
+        base = cursor.get();
+    }
+
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+
+    /**
+     * Returns the number of messages dropped because the log was full (only with {@link OverflowPolicy#DROP}).
+     *
+     * @return number of dropped messages
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+}
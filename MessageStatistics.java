@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Always-on counters of passed messages per message type. Counting is independent of the message log, so counts are neither bounded by the log capacity nor reset by {@link Network#clearLogs()}.
+ */
+public final class MessageStatistics {
+
+    private static final Message.MessageType[] TYPES = Message.MessageType.values();
+
+    /**
+     * Counters indexed by message type ordinal.
+     */
+    private final LongAdder[] counters = new LongAdder[TYPES.length];
+
+    /**
+     * Number of data items moved between peers because of joins and leaves.
+     */
+    private final LongAdder transferredItems = new LongAdder();
+
+    /**
+     * Number of copies of data items written to replicas.
+     */
+    private final LongAdder replicatedItems = new LongAdder();
+
+    /**
+     * Number of lookups resolved by and missed in the lookup caches of the peers, and the messages the hits saved.
+     */
+    private final LongAdder lookupCacheHits = new LongAdder();
+    private final LongAdder lookupCacheMisses = new LongAdder();
+    private final LongAdder savedLookupMessages = new LongAdder();
+
+    /**
+     * Number of broadcast waves and of the queries sent in them.
+     */
+    private final LongAdder broadcastWaves = new LongAdder();
+    private final LongAdder broadcastQueries = new LongAdder();
+
+
+    MessageStatistics() {
+        for ( int i = 0; i < counters.length; i++ ) {
+            counters[i] = new LongAdder();
+        }
+    }
+
+
+    /**
+     * Counts a passed message.
+     *
+     * @param msgType message type
+     */
+    void increment( Message.MessageType msgType ) {
+        counters[msgType.ordinal()].increment();
+    }
+
+
+    /**
+     * Counts data items moved between peers.
+     *
+     * @param count number of moved items
+     */
+    void addTransferredItems( long count ) {
+        transferredItems.add( count );
+    }
+
+
+    /**
+     * Counts copies of data items written to replicas.
+     *
+     * @param count number of copied items
+     */
+    void addReplicatedItems( long count ) {
+        replicatedItems.add( count );
+    }
+
+
+    /**
+     * Counts a lookup resolved by a lookup cache.
+     *
+     * @param savedMessages number of messages the lookup would have passed, as measured when its result was cached
+     */
+    void addLookupCacheHit( long savedMessages ) {
+        lookupCacheHits.increment();
+        savedLookupMessages.add( savedMessages );
+    }
+
+
+    /**
+     * Counts a lookup which was not found in a lookup cache.
+     */
+    void addLookupCacheMiss() {
+        lookupCacheMisses.increment();
+    }
+
+
+    /**
+     * Counts a broadcast wave.
+     *
+     * @param queries number of peers queried in the wave
+     */
+    void addBroadcastWave( int queries ) {
+        broadcastWaves.increment();
+        broadcastQueries.add( queries );
+    }
+
+
+    /**
+     * Returns the number of passed messages of a given message type.
+     *
+     * @param msgType the message type to be counted
+     * @return number of messages passed
+     */
+    public long getCount( Message.MessageType msgType ) {
+        return counters[msgType.ordinal()].sum();
+    }
+
+
+    /**
+     * Returns the number of passed messages of all types.
+     *
+     * @return number of messages passed
+     */
+    public long getTotal() {
+        long total = 0;
+        for ( LongAdder counter : counters ) {
+            total += counter.sum();
+        }
+        return total;
+    }
+
+
+    /**
+     * Returns the counts of all message types.
+     *
+     * @return map of message type to number of messages passed
+     */
+    public Map<Message.MessageType, Long> snapshot() {
+        Map<Message.MessageType, Long> counts = new EnumMap<Message.MessageType, Long>( Message.MessageType.class );
+        for ( Message.MessageType type : TYPES ) {
+            counts.put( type, counters[type.ordinal()].sum() );
+        }
+        return counts;
+    }
+
+
+    /**
+     * Returns the number of data items moved between peers because of joins and leaves.
+     *
+     * @return number of moved items
+     */
+    public long getTransferredItems() {
+        return transferredItems.sum();
+    }
+
+
+    /**
+     * Returns the number of copies of data items written to replicas, when storing items and when repairing replicas.
+     *
+     * @return number of copied items
+     */
+    public long getReplicatedItems() {
+        return replicatedItems.sum();
+    }
+
+
+    /**
+     * Returns the number of lookups resolved by the lookup caches of the peers.
+     *
+     * @return number of cache hits
+     */
+    public long getLookupCacheHits() {
+        return lookupCacheHits.sum();
+    }
+
+
+    /**
+     * Returns the number of lookups which were not found in the lookup caches of the peers and had to be routed.
+     *
+     * @return number of cache misses
+     */
+    public long getLookupCacheMisses() {
+        return lookupCacheMisses.sum();
+    }
+
+
+    /**
+     * Returns the number of routing messages saved by lookup cache hits. Each hit saves the messages passed by the lookup which filled the entry, counted by its own trace, so messages of concurrent lookups and stabilization are not included.
+     *
+     * @return number of saved messages
+     */
+    public long getSavedLookupMessages() {
+        return savedLookupMessages.sum();
+    }
+
+
+    /**
+     * Returns the number of broadcast waves sent by peers of a fully connected network.
+     *
+     * @return number of waves
+     */
+    public long getBroadcastWaves() {
+        return broadcastWaves.sum();
+    }
+
+
+    /**
+     * Returns the number of peers queried in all broadcast waves. Each query passes a GET and a GET_RESPONSE message.
+     *
+     * @return number of queries
+     */
+    public long getBroadcastQueries() {
+        return broadcastQueries.sum();
+    }
+
+
+    /**
+     * Resets all counters to zero.
+     */
+    public void reset() {
+        for ( LongAdder counter : counters ) {
+            counter.reset();
+        }
+        transferredItems.reset();
+        replicatedItems.reset();
+        lookupCacheHits.reset();
+        lookupCacheMisses.reset();
+        savedLookupMessages.reset();
+        broadcastWaves.reset();
+        broadcastQueries.reset();
+    }
+}
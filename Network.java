@@ -10,12 +10,14 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 
 /**
@@ -87,7 +89,7 @@ public abstract class Network {
                 for ( PeerNode p : nodes.values() ) {
 
                     // Duplicate check
-                    long nodeHash = hash( p.getNodeID() );
+                    long nodeHash = hashNodeId( p.getNodeID() );
                     if ( !duplicateHashCheck.contains( nodeHash ) ) {
                         duplicateHashCheck.add( nodeHash );
                     } else {
@@ -119,24 +121,24 @@ public abstract class Network {
                 }
             }
 
-            synchronized ( passedMessages ) {
-                int numberOfMessages = passedMessages.size();
-
-                // Draw message lines
-                for ( Message m : passedMessages ) {
+            // Draw message lines
+            g2d.setStroke( messageStroke );
+            int numberOfMessages = messageLog.forEach( new MessageLog.Visitor() {
+                @Override
+                public void visit( Message.MessageType msgType, long sourceHash, long destinationHash, long timestamp ) {
                     double alpha1, alpha2;
                     int x1 = 10, y1 = 10, x2 = 10, y2 = 10;
-                    if ( m.getSourceNodeId() != null ) {
-                        alpha1 = getAngleForNode( m.getSourceNodeId() );
+                    if ( sourceHash != MessageLog.CLIENT ) {
+                        alpha1 = getAngleForHash( sourceHash );
                         x1 = (int) (220 + 200 * Math.sin( alpha1 ));
                         y1 = (int) (220 + 200 * Math.cos( alpha1 ));
                     }
-                    if ( m.getDestinationNodeId() != null ) {
-                        alpha2 = getAngleForNode( m.getDestinationNodeId() );
+                    if ( destinationHash != MessageLog.CLIENT ) {
+                        alpha2 = getAngleForHash( destinationHash );
                         x2 = (int) (220 + 200 * Math.sin( alpha2 ));
                         y2 = (int) (220 + 200 * Math.cos( alpha2 ));
                     }
-                    switch ( m.getMsgType() ) {
+                    switch ( msgType ) {
                         case GET:
                             g2d.setColor( Color.GREEN );
                             break;
@@ -149,27 +151,28 @@ public abstract class Network {
                         case SET_RESPONSE:
                             g2d.setColor( Color.ORANGE );
                             break;
+                        default:
+                            break;
                     }
-                    g2d.setStroke( messageStroke );
                     g2d.drawLine( x1, y1, x2, y2 );
                 }
+            } );
 
-                int numberOfLookupQueries = getNumberOfMessages( Message.MessageType.LOOKUP );
-                int numberOfGetQueries = getNumberOfMessages( Message.MessageType.GET );
-                int numberOfSaveQueries = getNumberOfMessages( Message.MessageType.SET );
+            long numberOfLookupQueries = statistics.getCount( Message.MessageType.LOOKUP );
+            long numberOfGetQueries = statistics.getCount( Message.MessageType.GET );
+            long numberOfSaveQueries = statistics.getCount( Message.MessageType.SET );
 
-                g2d.setColor( Color.BLACK );
-                g2d.drawString( "Number of peers: " + nodes.size(), 20, 450 );
+            g2d.setColor( Color.BLACK );
+            g2d.drawString( "Number of peers: " + nodes.size(), 20, 450 );
 
-                g2d.drawString( "Number of connections: " + numberOfConnections
-                                + " per Peer: " + (numberOfConnections / nodes.size()), 20,
-                        470 );
+            g2d.drawString( "Number of connections: " + numberOfConnections
+                            + " per Peer: " + (numberOfConnections / nodes.size()), 20,
+                    470 );
 
-                g2d.drawString( "Number of lookup/get/save queries: " + numberOfLookupQueries + "/" + numberOfGetQueries
-                        + "/" + numberOfSaveQueries, 20, 490 );
+            g2d.drawString( "Number of lookup/get/save queries: " + numberOfLookupQueries + "/" + numberOfGetQueries
+                    + "/" + numberOfSaveQueries, 20, 490 );
 
-                g2d.drawString( "Number of messages: " + numberOfMessages, 20, 510 );
-            }
+            g2d.drawString( "Number of messages: " + numberOfMessages, 20, 510 );
         }
 
 
@@ -180,16 +183,33 @@ public abstract class Network {
          * @return angle of peer on circle
          */
         private double getAngleForNode( String nodeId ) {
-            return (double) hash( nodeId ) / Math.pow( 2, numberOfBits ) * 2
+            return getAngleForHash( hashNodeId( nodeId ) );
+        }
+
+
+        /**
+         * Helping method for paintNetwork to retrieve the angle of a hash at the illustration circle
+         *
+         * @param hash the hash to be drawn
+         * @return angle of hash on circle
+         */
+        private double getAngleForHash( long hash ) {
+            return (double) hash / Math.pow( 2, numberOfBits ) * 2
                     * Math.PI;
         }
     }
 
 
-    private final GuiPanel panel = new GuiPanel();
+    /**
+     * The panel drawing this network. Created on first use, so that networks used without user interface never load any AWT classes.
+     */
+    private GuiPanel panel;
 
 
-    GuiPanel getPanel() {
+    synchronized GuiPanel getPanel() {
+        if ( panel == null ) {
+            panel = new GuiPanel();
+        }
         return panel;
     }
 
@@ -199,15 +219,56 @@ public abstract class Network {
      */
     private final int numberOfBits;
 
+    /**
+     * Hashes node ids and data keys.
+     */
+    private final HashEngine hashEngine;
+
     /**
      * Map containing all nodes within the network Key: node id
      */
     protected final Map<String, PeerNode> nodes = new ConcurrentHashMap<String, PeerNode>();
 
     /**
-     * Statistics: List for storing passed messages.
+     * The nodes of {@link #nodes} in a dense array, in arbitrary order, for selecting random peers in constant time. Nodes are removed by moving the last node into their place. Guarded by nodes.
+     */
+    private PeerNode[] peerArray = new PeerNode[16];
+    private int peerCount;
+
+    /**
+     * The nodes of {@link #nodes} sorted by their hash. Updated under the lock of nodes.
+     */
+    private final RingIndex ringIndex = new RingIndex();
+
+    /**
+     * Statistics: Log of passed messages.
+     */
+    private volatile MessageLog messageLog = new MessageLog( MessageLog.DEFAULT_CAPACITY, MessageLog.OverflowPolicy.OVERWRITE );
+
+    /**
+     * Statistics: Counters of passed messages per message type.
+     */
+    private final MessageStatistics statistics = new MessageStatistics();
+
+    /**
+     * Statistics: Distributions of hop counts and latencies of lookups.
+     */
+    private final LookupStatistics lookupStatistics = new LookupStatistics();
+
+    /**
+     * Creates the local stores of new peers.
      */
-    private final List<Message> passedMessages = new ArrayList<Message>();
+    private volatile LocalStore.Factory localStoreFactory = LocalStore.SORTED;
+
+    /**
+     * Logs the SET queries for recovery after a crash; null if SETs are kept in memory only.
+     */
+    private volatile WriteAheadLog writeAheadLog;
+
+    /**
+     * Receives structured events of routing and maintenance, e.g., for debugging.
+     */
+    private volatile EventSink eventSink = EventSink.NOOP;
 
 
     /**
@@ -221,6 +282,7 @@ public abstract class Network {
                     + " not supported!" );
         }
         this.numberOfBits = numberOfBits;
+        this.hashEngine = new HashEngine( numberOfBits );
     }
 
 
@@ -231,7 +293,43 @@ public abstract class Network {
      */
     void addPeer( PeerNode node ) {
         synchronized ( nodes ) {
-            nodes.put( node.getNodeID(), node );
+            PeerNode previous = nodes.put( node.getNodeID(), node );
+            if ( previous == node ) {
+                return;
+            }
+            if ( previous != null ) {
+                // replaces the previous node with the same id
+                node.peerIndex = previous.peerIndex;
+                previous.peerIndex = -1;
+                ringIndex.remove( previous );
+            } else {
+                if ( peerCount == peerArray.length ) {
+                    peerArray = Arrays.copyOf( peerArray, 2 * peerCount );
+                }
+                node.peerIndex = peerCount++;
+            }
+            peerArray[node.peerIndex] = node;
+            ringIndex.add( node );
+        }
+    }
+
+
+    /**
+     * Removes a node from the network.
+     *
+     * @param node to be removed
+     */
+    void removePeer( PeerNode node ) {
+        synchronized ( nodes ) {
+            if ( !nodes.remove( node.getNodeID(), node ) ) {
+                return;
+            }
+            PeerNode last = peerArray[--peerCount];
+            peerArray[node.peerIndex] = last;
+            last.peerIndex = node.peerIndex;
+            peerArray[peerCount] = null;
+            node.peerIndex = -1;
+            ringIndex.remove( node );
         }
     }
 
@@ -249,6 +347,26 @@ public abstract class Network {
     }
 
 
+    /**
+     * Returns all nodes of the network.
+     *
+     * @return unmodifiable view of the nodes
+     */
+    public Collection<PeerNode> getPeers() {
+        return Collections.unmodifiableCollection( nodes.values() );
+    }
+
+
+    /**
+     * Returns the number of nodes in the network.
+     *
+     * @return number of nodes
+     */
+    public int getNumberOfPeers() {
+        return nodes.size();
+    }
+
+
     /**
      * Allows to retrieve a random node from the network.
      *
@@ -256,15 +374,24 @@ public abstract class Network {
      */
     public PeerNode getRandomPeer() {
         synchronized ( nodes ) {
-            if ( nodes.size() == 0 ) {
+            if ( peerCount == 0 ) {
                 return null;
             }
-            int i = (int) (Math.random() * nodes.size());
-            return nodes.values().toArray( new PeerNode[nodes.size()] )[i];
+            return peerArray[ThreadLocalRandom.current().nextInt( peerCount )];
         }
     }
 
 
+    /**
+     * Returns the nodes of the network sorted by their hash, e.g., to determine which node is responsible for a key without routing.
+     *
+     * @return the ring index
+     */
+    public RingIndex getRingIndex() {
+        return ringIndex;
+    }
+
+
     /**
      * Implement this in subclass to arrange the P2P overlay structure.
      */
@@ -272,12 +399,31 @@ public abstract class Network {
 
 
     /**
-     * Clear logging of messages and queries.
+     * Clear logging of messages and queries. Does not reset the message counters of {@link #getStatistics()}.
      */
     public void clearLogs() {
-        synchronized ( passedMessages ) {
-            passedMessages.clear();
-        }
+        messageLog.clear();
+    }
+
+
+    /**
+     * Replaces the log of passed messages by an empty one with the given capacity and overflow policy.
+     *
+     * @param capacity maximum number of retained messages
+     * @param policy what to do with new messages once the log is full
+     */
+    public void configureMessageLog( int capacity, MessageLog.OverflowPolicy policy ) {
+        messageLog = new MessageLog( capacity, policy );
+    }
+
+
+    /**
+     * Gets the log of passed messages, e.g., to stream it without copying.
+     *
+     * @return the message log
+     */
+    public MessageLog getMessageLog() {
+        return messageLog;
     }
 
 
@@ -289,49 +435,93 @@ public abstract class Network {
      * @param toPeer receiver peer of message (client app if null)
      */
     protected void logPassedMessage( Message.MessageType msgType, PeerNode fromPeer, PeerNode toPeer ) {
-        String fromID = null;
-        String toID = null;
-        if ( fromPeer != null ) {
-            fromID = fromPeer.getNodeID();
-        }
-        if ( toPeer != null ) {
-            toID = toPeer.getNodeID();
-        }
         // ignore local calls
         if ( fromPeer != null && fromPeer.equals( toPeer ) ) {
-            // skip
-        } else {
-            Message msg = new Message( msgType, fromID, toID );
-            synchronized ( passedMessages ) {
-                passedMessages.add( msg );
-            }
+            return;
+        }
+        long fromHash = fromPeer == null ? MessageLog.CLIENT : fromPeer.getNodeHash();
+        long toHash = toPeer == null ? MessageLog.CLIENT : toPeer.getNodeHash();
+        statistics.increment( msgType );
+        messageLog.append( msgType, fromHash, toHash );
+        LookupTrace trace = LookupTrace.active();
+        if ( trace != null ) {
+            trace.countMessage();
         }
     }
 
 
     /**
-     * Helping method to return the number of passed messages of a given message type.
+     * Gets the counters of passed messages per message type.
      *
-     * @param msgType the message type to be counted
-     * @return number of messages passed
-     */
-    private int getNumberOfMessages( Message.MessageType msgType ) {
-        int ret = 0;
-        synchronized ( passedMessages ) {
-            for ( Message m : passedMessages ) {
-                if ( m.getMsgType().equals( msgType ) ) {
-                    ret++;
-                }
-            }
-        }
-        return ret;
+     * @return the message statistics
+     */
+    public MessageStatistics getStatistics() {
+        return statistics;
+    }
+
+
+    /**
+     * Gets the distributions of hop counts, closestPrecedingFinger() calls and latencies of the lookups.
+     *
+     * @return the lookup statistics
+     */
+    public LookupStatistics getLookupStatistics() {
+        return lookupStatistics;
+    }
+
+
+    public EventSink getEventSink() {
+        return eventSink;
+    }
+
+
+    /**
+     * Sets the sink receiving the events of routing and maintenance.
+     *
+     * @param eventSink the sink; null to discard all events
+     */
+    public void setEventSink( EventSink eventSink ) {
+        this.eventSink = eventSink == null ? EventSink.NOOP : eventSink;
+    }
+
+
+    public LocalStore.Factory getLocalStoreFactory() {
+        return localStoreFactory;
+    }
+
+
+    /**
+     * Sets the factory creating the local stores of peers. Only peers created afterwards are affected.
+     *
+     * @param localStoreFactory the factory, e.g., {@link LocalStore#HASH_ORDERED}
+     */
+    public void setLocalStoreFactory( LocalStore.Factory localStoreFactory ) {
+        this.localStoreFactory = localStoreFactory;
+    }
+
+
+    public WriteAheadLog getWriteAheadLog() {
+        return writeAheadLog;
+    }
+
+
+    /**
+     * Sets the log the SET queries of all peers are appended to. Replay the log with {@link WriteAheadLog#replay(Network)} before, if it holds records of an earlier run.
+     *
+     * @param writeAheadLog the log; null to keep SETs in memory only
+     */
+    public void setWriteAheadLog( WriteAheadLog writeAheadLog ) {
+        this.writeAheadLog = writeAheadLog;
     }
 
 
+    /**
+     * Returns a snapshot of the retained passed messages, oldest first.
+     *
+     * @return list of messages
+     */
     public List<Message> getMessages() {
-        synchronized ( passedMessages ) {
-            return new ArrayList<Message>( passedMessages );
-        }
+        return messageLog.snapshot();
     }
 
 
@@ -342,20 +532,29 @@ public abstract class Network {
      * @return long hash value;
      */
     public final long hash( String value ) {
-        try {
-            int basis = (int) Math.pow( 2, this.numberOfBits );
-            MessageDigest md = MessageDigest.getInstance( "SHA" );
-            byte[] digest = md.digest( value.getBytes() );
-            long v = 0;
-            for ( int i = 0; i < 7; i++ ) {
-                v = v + (digest[i] & 0xff) * (int) Math.pow( 256, i );
-            }
-            v = v % basis;
-            return v;
-        } catch ( NoSuchAlgorithmException e ) {
-            System.err.println( "Hash not supported by your JVM!" );
-            return -1;
-        }
+        return hashEngine.hash( value );
+    }
+
+
+    /**
+     * Returns the hash of a node id. The hashes of the peers in the network are taken from the peers, which compute them once; only the ids of other peers, e.g., failed ones, are hashed again.
+     *
+     * @param nodeId the node id to be hashed
+     * @return long hash value
+     */
+    public final long hashNodeId( String nodeId ) {
+        PeerNode peer = nodes.get( nodeId );
+        return peer != null ? peer.getNodeHash() : hashEngine.digest( nodeId );
+    }
+
+
+    /**
+     * Enables a bounded cache for the hashes of data keys. Useful if the same keys are looked up repeatedly.
+     *
+     * @param size maximum number of cached key hashes; zero disables the cache
+     */
+    public void setKeyHashCacheSize( int size ) {
+        hashEngine.setKeyCacheSize( size );
     }
 
 
@@ -419,20 +618,20 @@ public abstract class Network {
             if ( start == end - 1 ) {
                 return false;
             }
-            if ( start == (1 << numberOfBits) - 1 && end == 0 ) {
+            if ( start == (1L << numberOfBits) - 1 && end == 0 ) {
                 return false;
             }
         }
         if ( !startInclusive ) {
             start++;
-            if ( start == (1 << numberOfBits) ) {
+            if ( start == (1L << numberOfBits) ) {
                 start = 0;
             }
         }
         if ( !endInclusive ) {
             end--;
             if ( end == -1 ) {
-                end += (1 << numberOfBits);
+                end += (1L << numberOfBits);
             }
         }
         boolean ret = isHashInRingSector( hash, start, end );
@@ -446,4 +645,35 @@ public abstract class Network {
 
 
     public abstract PeerNode createPeer( String id, boolean useSuccessorsOnly );
+
+
+    /**
+     * Creates a number of peers, named by a prefix and a running number starting at 0.
+     *
+     * @param count number of peers to create
+     * @param prefix prefix of the node ids
+     * @param useSuccessorsOnly passed to the created peers
+     * @return the created peers, in order of creation
+     */
+    public List<PeerNode> createPeers( int count, String prefix, boolean useSuccessorsOnly ) {
+        List<PeerNode> peers = new ArrayList<PeerNode>( count );
+        StringBuilder id = new StringBuilder( prefix );
+        for ( int i = 0; i < count; i++ ) {
+            id.setLength( prefix.length() );
+            peers.add( createPeer( id.append( i ).toString(), useSuccessorsOnly ) );
+        }
+        return peers;
+    }
+
+
+    /**
+     * Creates a number of peers using the finger table, named by a prefix and a running number starting at 0.
+     *
+     * @param count number of peers to create
+     * @param prefix prefix of the node ids
+     * @return the created peers, in order of creation
+     */
+    public List<PeerNode> createPeers( int count, String prefix ) {
+        return createPeers( count, prefix, false );
+    }
 }
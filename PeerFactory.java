@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+
+
+/**
+ * Creates the peers of a chord network. The constructor of a peer class is resolved only once, so creating a peer costs no reflective lookup.
+ */
+public interface PeerFactory {
+
+    /**
+     * Factory for {@link ChordPeerImpl}, calling its constructor directly.
+     */
+    PeerFactory CHORD_PEER_IMPL = new PeerFactory() {
+        @Override
+        public ChordPeerNode create( ChordNetwork network, String nodeID, boolean useSuccessorsOnly ) {
+            return new ChordPeerImpl( network, nodeID, useSuccessorsOnly );
+        }
+    };
+
+
+    /**
+     * Creates a peer, which joins the network.
+     *
+     * @param network the network
+     * @param nodeID the node id
+     * @param useSuccessorsOnly passed to the peer if its constructor accepts it
+     * @return the peer
+     */
+    ChordPeerNode create( ChordNetwork network, String nodeID, boolean useSuccessorsOnly );
+
+
+    /**
+     * Returns a factory for a peer class. The class needs a public constructor with the parameters 'Network, String, boolean' or 'Network, String'.
+     *
+     * @param chordPeerClass the peer class
+     * @return the factory
+     * @throws IllegalArgumentException if the class is abstract or has no suitable constructor
+     */
+    static PeerFactory of( Class<? extends ChordPeerNode> chordPeerClass ) {
+        if ( Modifier.isAbstract( chordPeerClass.getModifiers() ) || chordPeerClass.isInterface() ) {
+            throw new IllegalArgumentException( "chordPeerClass must not be abstract or an interface." );
+        }
+        if ( chordPeerClass == ChordPeerImpl.class ) {
+            return CHORD_PEER_IMPL;
+        }
+
+        final MethodType type = MethodType.methodType( ChordPeerNode.class, ChordNetwork.class, String.class, boolean.class );
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        MethodHandle constructor;
+        try {
+            constructor = lookup.findConstructor( chordPeerClass, MethodType.methodType( void.class, Network.class, String.class, boolean.class ) );
+        } catch ( NoSuchMethodException | IllegalAccessException e ) {
+            try {
+                constructor = MethodHandles.dropArguments( lookup.findConstructor( chordPeerClass, MethodType.methodType( void.class, Network.class, String.class ) ), 2, boolean.class );
+            } catch ( NoSuchMethodException | IllegalAccessException e1 ) {
+                throw new IllegalArgumentException( "The provided implementation of ChordPeerNode does neither have an constructor with the parameters 'Network, String, boolean' not with the parameters 'Network, String'", e1 );
+            }
+        }
+        final MethodHandle handle = constructor.asType( type );
+        return new PeerFactory() {
+            @Override
+            public ChordPeerNode create( ChordNetwork network, String nodeID, boolean useSuccessorsOnly ) {
+                try {
+                    return (ChordPeerNode) handle.invokeExact( network, nodeID, useSuccessorsOnly );
+                } catch ( RuntimeException | Error e ) {
+                    throw e;
+                } catch ( Throwable t ) {
+                    throw new RuntimeException( t );
+                }
+            }
+        };
+    }
+}
@@ -5,11 +5,10 @@
 package ch.unibas.dmi.dbis.fds.p2p;
 
 
-import java.util.Collections;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 
 
 /**
@@ -25,20 +24,30 @@ public abstract class PeerNode {
      */
     protected final String nodeID;
 
+    /**
+     * The hash of the nodeID of this peer.
+     */
+    private final long nodeHash;
+
     /**
      * Reference to the network this peer belongs to.
      */
     protected final Network network;
 
     /**
-     * Local data stored at the peer.
+     * Local data stored at the peer. Created by the local store factory of the network.
+     */
+    protected final LocalStore localData;
+
+    /**
+     * Connections to other peers known by this peer, keyed by their node hash.
      */
-    protected final Map<String, String> localData = new TreeMap<String, String>();
+    private final ConnectionTable connections = new ConnectionTable();
 
     /**
-     * Connections to other peers known by this peer.
+     * Position of this peer in the dense peer array of the network, -1 if not in the network. Guarded by the nodes of the network.
      */
-    protected final Map<String, Integer> connections = new HashMap<String, Integer>();
+    int peerIndex = -1;
 
 
     /**
@@ -49,6 +58,8 @@ public abstract class PeerNode {
     public PeerNode( Network network, String nodeID ) {
         this.network = network;
         this.nodeID = nodeID;
+        this.nodeHash = network.hashNodeId( nodeID );
+        this.localData = network.getLocalStoreFactory().create( network, nodeID );
     }
 
 
@@ -80,6 +91,86 @@ public abstract class PeerNode {
     public abstract PeerNode lookupNodeForItem( PeerNode originOfQuery, String key );
 
 
+    /**
+     * Determines the node where the data is/should be located, like lookupNodeForItem(), and records the course of the lookup. The lookup is added to the lookup statistics of the network.
+     *
+     * @param originOfQuery is null if the query comes from client otherwise the first peer in the network
+     * @param key of data item
+     * @return the trace of the lookup, including the resulting node
+     */
+    public final LookupTrace traceLookup( PeerNode originOfQuery, String key ) {
+        LookupTrace trace = new LookupTrace( this, key, true );
+        trace.start();
+        PeerNode node = null;
+        try {
+            node = lookupNodeForItem( originOfQuery, key );
+        } finally {
+            trace.stop( node );
+        }
+        network.getLookupStatistics().record( trace );
+        return trace;
+    }
+
+
+    /**
+     * Saves a batch of data items, each at the node determined by lookupNodeForItem(). Override this in subclass to route the batch more efficiently than key by key.
+     *
+     * @param originOfQuery is null if the query comes from client otherwise the first peer in the network
+     * @param items the data items (key and value)
+     */
+    public void setDataItems( PeerNode originOfQuery, Map<String, String> items ) {
+        for ( Map.Entry<String, String> item : items.entrySet() ) {
+            lookupNodeForItem( originOfQuery, item.getKey() ).setDataItem( originOfQuery, item.getKey(), item.getValue() );
+        }
+    }
+
+
+    /**
+     * Gets a batch of data items, each from the node determined by lookupNodeForItem(). Override this in subclass to route the batch more efficiently than key by key.
+     *
+     * @param originOfQuery is null if the query comes from client otherwise the first peer in the network
+     * @param keys of the data items
+     * @return the data items found (key and value); keys which were not found are missing
+     */
+    public Map<String, String> getDataItems( PeerNode originOfQuery, Collection<String> keys ) {
+        Map<String, String> items = new HashMap<String, String>();
+        for ( String key : keys ) {
+            String value = lookupNodeForItem( originOfQuery, key ).getDataItem( originOfQuery, key );
+            if ( value != null ) {
+                items.put( key, value );
+            }
+        }
+        return items;
+    }
+
+
+    /**
+     * Appends a SET to the write-ahead log of the network, if there is one. Call this before storing the data item.
+     *
+     * @param key of data item
+     * @param value of data item
+     */
+    protected final void logDataItem( String key, String value ) {
+        WriteAheadLog log = network.getWriteAheadLog();
+        if ( log != null ) {
+            log.append( key, value );
+        }
+    }
+
+
+    /**
+     * Appends the SETs of a number of data items to the write-ahead log of the network, if there is one. Call this before storing the data items.
+     *
+     * @param items the data items
+     */
+    protected final void logDataItems( Map<String, String> items ) {
+        WriteAheadLog log = network.getWriteAheadLog();
+        if ( log != null ) {
+            log.appendAll( items );
+        }
+    }
+
+
     /**
      * Check if data item exists at this peer.
      *
@@ -91,6 +182,28 @@ public abstract class PeerNode {
     }
 
 
+    /**
+     * Removes and returns all data items whose key hash lies within the ring sector (fromExclusive, toInclusive].
+     *
+     * @param fromExclusive start of the ring sector, exclusive
+     * @param toInclusive end of the ring sector, inclusive
+     * @return the removed data items
+     */
+    protected final Map<String, String> extractDataItems( long fromExclusive, long toInclusive ) {
+        return localData.extractRange( fromExclusive, toInclusive );
+    }
+
+
+    /**
+     * Stores data items handed over by another peer.
+     *
+     * @param items the data items
+     */
+    protected final void storeDataItems( Map<String, String> items ) {
+        localData.putAll( items );
+    }
+
+
     /**
      * Get node id of this peer.
      *
@@ -102,42 +215,57 @@ public abstract class PeerNode {
 
 
     /**
-     * Save connection to other peer at this peer.
+     * Get the hash of the node id of this peer.
+     *
+     * @return node hash
+     */
+    public final long getNodeHash() {
+        return nodeHash;
+    }
+
+
+    /**
+     * Save connection to other peer at this peer. If the peer is connected already, only its count is incremented, without locking or allocating.
      *
      * @param toId node id of other peer
      */
     public final void addConnection( String toId ) {
         // ignore "connections" to ourselves.
-        if ( toId.equals( nodeID ) ) {
-            return;
+        if ( !toId.equals( nodeID ) ) {
+            connections.add( network.hashNodeId( toId ), toId );
         }
-        synchronized ( connections ) {
-            Integer count = connections.get( toId );
-            if ( count == null ) {
-                count = Integer.valueOf( 0 );
-            }
-            connections.put( toId, count.intValue() + 1 );
+    }
+
+
+    /**
+     * Save connection to other peer at this peer, using the node hash the peer caches.
+     *
+     * @param to other peer
+     */
+    public final void addConnection( PeerNode to ) {
+        if ( to != this && !to.nodeID.equals( nodeID ) ) {
+            connections.add( to.nodeHash, to.nodeID );
         }
     }
 
 
     /**
+     * Removes a reference to another peer. The connection is removed with its last reference.
+     *
      * @param toId node id of other peer
      */
     public final void removeConnection( String toId ) {
-        synchronized ( connections ) {
-            Integer count = connections.get( toId );
-            if ( count == null ) {
-                // this shouldn't happen, but you never know
-                return;
-            }
-            int newCount = count.intValue() - 1;
-            if ( newCount == 0 ) {
-                connections.remove( toId );
-            } else {
-                connections.put( toId, newCount );
-            }
-        }
+        connections.remove( network.hashNodeId( toId ), toId );
+    }
+
+
+    /**
+     * Removes a reference to another peer, using the node hash the peer caches.
+     *
+     * @param to other peer
+     */
+    public final void removeConnection( PeerNode to ) {
+        connections.remove( to.nodeHash, to.nodeID );
     }
 
 
@@ -148,37 +276,33 @@ public abstract class PeerNode {
      * @return true if connection exists
      */
     public final boolean hasConnectionTo( String toID ) {
-        synchronized ( connections ) {
-            return connections.containsKey( toID );
-        }
+        return connections.contains( network.hashNodeId( toID ), toID );
     }
 
 
     /**
-     * Return all connections of this peer.
+     * Return all connections of this peer. The set is an immutable snapshot, which is shared until the connections change.
      *
-     * @return ArrayList containing connections
+     * @return node ids of the connected peers
      */
     public final Set<String> getConnections() {
-        synchronized ( connections ) {
-            return Collections.unmodifiableSet( connections.keySet() );
-        }
+        return connections.nodeIDs();
     }
 
 
     @Override
     public String toString() {
-        return getNodeID() + " - " + network.hash( getNodeID() );
+        return getNodeID() + " - " + nodeHash;
     }
 
 
     /**
-     * Gets the local data.
+     * Gets a copy of the local data, which is safe to iterate while the peer keeps working.
      *
-     * @return the local data
+     * @return the local data, sorted by key
      */
     public final Map<String, String> getLocalData() {
-        return localData;
+        return localData.snapshot();
     }
 
 
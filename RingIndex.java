@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiFunction;
+
+
+/**
+ * The peers of a network sorted by their hash, i.e., the ideal identifier ring. Answers which peer truly owns a hash, independent of the pointers the peers maintain, so routing can be verified or bypassed ("oracle routing") without passing any messages. All queries take O(log N) and may run concurrently with updates.
+ * <p>
+ * Peers with equal hashes share one position on the ring; queries return the one added first.
+ */
+public final class RingIndex {
+
+    /**
+     * The peers per hash, in order of addition. The arrays are replaced, never modified.
+     */
+    private final ConcurrentNavigableMap<Long, PeerNode[]> ring = new ConcurrentSkipListMap<Long, PeerNode[]>();
+
+
+    RingIndex() {
+    }
+
+
+    void add( final PeerNode node ) {
+        ring.compute( node.getNodeHash(), new BiFunction<Long, PeerNode[], PeerNode[]>() {
+            @Override
+            public PeerNode[] apply( Long hash, PeerNode[] peers ) {
+                if ( peers == null ) {
+                    return new PeerNode[] { node };
+                }
+                PeerNode[] added = Arrays.copyOf( peers, peers.length + 1 );
+                added[peers.length] = node;
+                return added;
+            }
+        } );
+    }
+
+
+    void remove( final PeerNode node ) {
+        ring.computeIfPresent( node.getNodeHash(), new BiFunction<Long, PeerNode[], PeerNode[]>() {
+            @Override
+            public PeerNode[] apply( Long hash, PeerNode[] peers ) {
+                PeerNode[] remaining = new PeerNode[peers.length - 1];
+                int j = 0;
+                for ( PeerNode p : peers ) {
+                    if ( p != node ) {
+                        if ( j == remaining.length ) {
+                            // node was not in the index
+                            return peers;
+                        }
+                        remaining[j++] = p;
+                    }
+                }
+                return remaining.length == 0 ? null : remaining;
+            }
+        } );
+    }
+
+
+    /**
+     * Returns the peer responsible for a hash: the first peer at or after the hash on the ring.
+     *
+     * @param hash the hash
+     * @return the responsible peer or null if the ring is empty
+     */
+    public PeerNode ownerOf( long hash ) {
+        return first( ring.ceilingEntry( hash ) );
+    }
+
+
+    /**
+     * Returns the first peer strictly after a hash on the ring.
+     *
+     * @param hash the hash
+     * @return the successor or null if the ring is empty
+     */
+    public PeerNode successorOf( long hash ) {
+        return first( ring.higherEntry( hash ) );
+    }
+
+
+    /**
+     * Returns the first peer strictly before a hash on the ring.
+     *
+     * @param hash the hash
+     * @return the predecessor or null if the ring is empty
+     */
+    public PeerNode predecessorOf( long hash ) {
+        Map.Entry<Long, PeerNode[]> entry = ring.lowerEntry( hash );
+        if ( entry == null ) {
+            entry = ring.lastEntry();
+        }
+        return entry == null ? null : entry.getValue()[0];
+    }
+
+
+    /**
+     * Returns the number of distinct peer hashes on the ring.
+     *
+     * @return number of positions
+     */
+    public int size() {
+        return ring.size();
+    }
+
+
+    private PeerNode first( Map.Entry<Long, PeerNode[]> entry ) {
+        if ( entry == null ) {
+            // wrap around
+            entry = ring.firstEntry();
+        }
+        return entry == null ? null : entry.getValue()[0];
+    }
+}
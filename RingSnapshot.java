@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+
+/**
+ * Binary snapshot of a chord ring: the node ids of all peers, their predecessor, successor list and finger pointers, their data items and the copies they hold as replicas. The file consists of a header, a table of all peers sorted by their hash, and one record per peer in the same order, in which pointers are indices into the table. Thus, the ring is restored in one pass over the file: the table creates the peers, and every record links one of them and fills its store.
+ * <p>
+ * Pointers to peers which are not in the network any more, e.g., failed ones, are not written. A missing predecessor is restored as the peer itself, i.e., unknown, and a missing successor as the first restored entry of the successor list.
+ */
+final class RingSnapshot {
+
+    private static final int MAGIC = 0x46445352;
+
+    private static final int VERSION = 2;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final int NONE = -1;
+
+
+    private RingSnapshot() {
+    }
+
+
+    /**
+     * Writes a snapshot of the peers of a network to a file, which is overwritten. The peers should be quiescent, i.e., not stabilize or store items meanwhile, otherwise the snapshot mixes states of different times.
+     *
+     * @param network the network
+     * @param file the file
+     * @return the number of peers written
+     * @throws IOException if the file cannot be written
+     */
+    static int write( ChordNetwork network, File file ) throws IOException {
+        List<ChordPeerImpl> peers = new ArrayList<ChordPeerImpl>( network.getNumberOfPeers() );
+        for ( PeerNode p : network.getPeers() ) {
+            if ( !(p instanceof ChordPeerImpl) ) {
+                throw new IllegalStateException( "Snapshots are only supported for ChordPeerImpl peers." );
+            }
+            peers.add( (ChordPeerImpl) p );
+        }
+        ChordPeerImpl[] ring = peers.toArray( new ChordPeerImpl[peers.size()] );
+        Arrays.sort( ring, new Comparator<ChordPeerImpl>() {
+            @Override
+            public int compare( ChordPeerImpl a, ChordPeerImpl b ) {
+                return Long.compare( a.n, b.n );
+            }
+        } );
+        Map<ChordPeerImpl, Integer> indices = new IdentityHashMap<ChordPeerImpl, Integer>( ring.length );
+        for ( int i = 0; i < ring.length; i++ ) {
+            indices.put( ring[i], i );
+        }
+
+        try ( Output out = new Output( FileChannel.open( file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ) ) ) {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeInt( network.getNumberOfBits() );
+            out.writeInt( ring.length );
+            for ( ChordPeerImpl peer : ring ) {
+                out.writeByte( peer.isUsingSuccessorsOnly() ? 1 : 0 );
+                out.writeString( peer.getNodeID() );
+            }
+
+            for ( ChordPeerImpl peer : ring ) {
+                out.writeInt( indexOf( indices, peer.getChordPredecessor() ) );
+
+                ChordPeerImpl[] successors = peer.peekSuccessorList();
+                int[] successorIndices = new int[successors.length];
+                int r = 0;
+                for ( ChordPeerImpl s : successors ) {
+                    int index = indexOf( indices, s );
+                    if ( index != NONE ) {
+                        successorIndices[r++] = index;
+                    }
+                }
+                out.writeInt( r );
+                for ( int j = 0; j < r; j++ ) {
+                    out.writeInt( successorIndices[j] );
+                }
+
+                for ( int k = 0; k < peer.finger.size(); k++ ) {
+                    out.writeInt( indexOf( indices, peer.finger.getNode( k ) ) );
+                }
+
+                writeItems( out, peer.getLocalData() );
+                writeItems( out, peer.getReplicaData() );
+            }
+        }
+        return ring.length;
+    }
+
+
+    private static void writeItems( Output out, Map<String, String> items ) throws IOException {
+        out.writeInt( items.size() );
+        for ( Map.Entry<String, String> item : items.entrySet() ) {
+            out.writeString( item.getKey() );
+            out.writeString( item.getValue() );
+        }
+    }
+
+
+    private static int indexOf( Map<ChordPeerImpl, Integer> indices, PeerNode peer ) {
+        Integer index = peer == null ? null : indices.get( peer );
+        return index == null ? NONE : index;
+    }
+
+
+    /**
+     * Reads a snapshot and creates its peers in a network. The peers are linked and filled, but neither added to the network nor scheduled for stabilization.
+     *
+     * @param network the network, with the same number of bits as the snapshot
+     * @param file the file
+     * @return the restored peers, sorted by their hash
+     * @throws IOException if the file cannot be read or is no snapshot of a network like this one
+     */
+    static ChordPeerImpl[] read( final ChordNetwork network, File file ) throws IOException {
+        try ( Input in = new Input( FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) ) {
+            if ( in.readInt() != MAGIC || in.readInt() != VERSION ) {
+                throw new IOException( file + " is no ring snapshot of version " + VERSION + "." );
+            }
+            int bits = in.readInt();
+            if ( bits != network.getNumberOfBits() ) {
+                throw new IOException( "The snapshot " + file + " is of a ring of " + bits + " bits, but the network has " + network.getNumberOfBits() + " bits." );
+            }
+            int count = in.readInt();
+            final boolean[] useSuccessorsOnly = new boolean[count];
+            final String[] nodeIDs = new String[count];
+            for ( int i = 0; i < count; i++ ) {
+                useSuccessorsOnly[i] = in.readByte() != 0;
+                nodeIDs[i] = in.readString();
+            }
+
+            final ChordPeerImpl[] ring = new ChordPeerImpl[count];
+            IntStream.range( 0, count ).parallel().forEach( new IntConsumer() {
+                @Override
+                public void accept( int i ) {
+                    ring[i] = new ChordPeerImpl( network, nodeIDs[i], useSuccessorsOnly[i], false );
+                }
+            } );
+
+            for ( ChordPeerImpl peer : ring ) {
+                int predecessor = in.readIndex( count );
+
+                ChordPeerImpl[] successors = new ChordPeerImpl[in.readInt()];
+                for ( int j = 0; j < successors.length; j++ ) {
+                    int successor = in.readIndex( count );
+                    if ( successor == NONE ) {
+                        throw new IOException( "Missing successor in the snapshot." );
+                    }
+                    successors[j] = ring[successor];
+                }
+                peer.wire( predecessor == NONE ? peer : ring[predecessor], successors );
+
+                for ( int k = 0; k < peer.finger.size(); k++ ) {
+                    int node = in.readIndex( count );
+                    if ( node != NONE ) {
+                        peer.finger.setNode( k, ring[node] );
+                    } else if ( k == 0 ) {
+                        peer.finger.setNode( 0, successors.length > 0 ? successors[0] : peer );
+                    }
+                }
+
+                readItems( in, peer.localData );
+                readItems( in, peer.replicas );
+            }
+            return ring;
+        }
+    }
+
+
+    private static void readItems( Input in, LocalStore store ) throws IOException {
+        for ( int items = in.readInt(); items > 0; items-- ) {
+            String key = in.readString();
+            store.put( key, in.readString() );
+        }
+    }
+
+
+    /**
+     * Buffered writing to a file channel.
+     */
+    private static final class Output implements Closeable {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect( BUFFER_SIZE );
+
+
+        private Output( FileChannel channel ) {
+            this.channel = channel;
+        }
+
+
+        private void ensure( int bytes ) throws IOException {
+            if ( buffer.remaining() < bytes ) {
+                flush();
+            }
+        }
+
+
+        private void writeByte( int value ) throws IOException {
+            ensure( 1 );
+            buffer.put( (byte) value );
+        }
+
+
+        private void writeInt( int value ) throws IOException {
+            ensure( 4 );
+            buffer.putInt( value );
+        }
+
+
+        private void writeString( String value ) throws IOException {
+            byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+            writeInt( bytes.length );
+            for ( int offset = 0; offset < bytes.length; ) {
+                ensure( 1 );
+                int length = Math.min( buffer.remaining(), bytes.length - offset );
+                buffer.put( bytes, offset, length );
+                offset += length;
+            }
+        }
+
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while ( buffer.hasRemaining() ) {
+                channel.write( buffer );
+            }
+            buffer.clear();
+        }
+
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+
+    /**
+     * Buffered reading from a file channel.
+     */
+    private static final class Input implements Closeable {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect( BUFFER_SIZE );
+
+
+        private Input( FileChannel channel ) {
+            this.channel = channel;
+            buffer.flip();
+        }
+
+
+        private void require( int bytes ) throws IOException {
+            if ( buffer.remaining() < bytes ) {
+                buffer.compact();
+                while ( buffer.position() < bytes ) {
+                    if ( channel.read( buffer ) < 0 ) {
+                        throw new EOFException( "Unexpected end of the snapshot." );
+                    }
+                }
+                buffer.flip();
+            }
+        }
+
+
+        private byte readByte() throws IOException {
+            require( 1 );
+            return buffer.get();
+        }
+
+
+        private int readInt() throws IOException {
+            require( 4 );
+            return buffer.getInt();
+        }
+
+
+        /**
+         * Reads a peer index, which is either {@link #NONE} or less than the number of peers.
+         */
+        private int readIndex( int count ) throws IOException {
+            int index = readInt();
+            if ( index < NONE || index >= count ) {
+                throw new IOException( "Invalid peer index " + index + " in the snapshot." );
+            }
+            return index;
+        }
+
+
+        private String readString() throws IOException {
+            int length = readInt();
+            if ( length < 0 ) {
+                throw new IOException( "Invalid string length " + length + " in the snapshot." );
+            }
+            byte[] bytes = new byte[length];
+            for ( int offset = 0; offset < length; ) {
+                require( 1 );
+                int n = Math.min( buffer.remaining(), length - offset );
+                buffer.get( bytes, offset, n );
+                offset += n;
+            }
+            return new String( bytes, StandardCharsets.UTF_8 );
+        }
+
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
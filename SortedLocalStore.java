@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+
+/**
+ * Local store keeping the data items sorted by key in a concurrent skip list. Extracting a ring sector hashes every stored key.
+ */
+public final class SortedLocalStore implements LocalStore {
+
+    private final Network network;
+    private final ConcurrentNavigableMap<String, String> items = new ConcurrentSkipListMap<String, String>();
+
+
+    public SortedLocalStore( Network network ) {
+        this.network = network;
+    }
+
+
+    @Override
+    public String get( String key ) {
+        return items.get( key );
+    }
+
+
+    @Override
+    public void put( String key, String value ) {
+        items.put( key, value );
+    }
+
+
+    @Override
+    public void putAll( Map<String, String> items ) {
+        this.items.putAll( items );
+    }
+
+
+    @Override
+    public boolean containsKey( String key ) {
+        return items.containsKey( key );
+    }
+
+
+    @Override
+    public Map<String, String> extractRange( long fromExclusive, long toInclusive ) {
+        Map<String, String> extracted = new TreeMap<String, String>();
+        Iterator<Map.Entry<String, String>> it = items.entrySet().iterator();
+        while ( it.hasNext() ) {
+            Map.Entry<String, String> entry = it.next();
+            long hash = network.hash( entry.getKey() );
+            if ( network.isHashElementOf( hash, fromExclusive, toInclusive, false, true ) ) {
+                // skip items replaced concurrently; the new value stays
+                if ( items.remove( entry.getKey(), entry.getValue() ) ) {
+                    extracted.put( entry.getKey(), entry.getValue() );
+                }
+            }
+        }
+        return extracted;
+    }
+
+
+    @Override
+    public Map<String, String> extractAll() {
+        Map<String, String> extracted = new TreeMap<String, String>();
+        Map.Entry<String, String> entry;
+        while ( (entry = items.pollFirstEntry()) != null ) {
+            extracted.put( entry.getKey(), entry.getValue() );
+        }
+        return extracted;
+    }
+
+
+    @Override
+    public Map<String, String> snapshot() {
+        return new TreeMap<String, String>( items );
+    }
+
+
+    @Override
+    public int size() {
+        return items.size();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Network-wide scheduler for the periodic self-stabilization of chord peers. All peers of a network share one small, bounded pool of daemon threads instead of owning a timer thread each. The first run of every peer is delayed by a random offset within one interval, so the stabilization load is spread evenly over time instead of firing in bursts.
+ */
+public class StabilizationScheduler {
+
+    /**
+     * Default interval in milliseconds between two stabilizations of the same node.
+     */
+    public static final int DEFAULT_INTERVAL = 2000;
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    /**
+     * The scheduled tasks. Key: node id
+     */
+    private final Map<String, ScheduledFuture<?>> schedules = new ConcurrentHashMap<String, ScheduledFuture<?>>();
+
+    /**
+     * The interval in milliseconds for the nodes stabilizing themselves. Values less or equal to zero disable periodic stabilization.
+     */
+    private volatile int interval = DEFAULT_INTERVAL;
+
+
+    /**
+     * Constructor
+     *
+     * @param poolSize the number of threads used to run the stabilization of all nodes
+     */
+    public StabilizationScheduler( int poolSize ) {
+        if ( poolSize < 1 ) {
+            throw new IllegalArgumentException( "poolSize must be at least 1." );
+        }
+        final AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ScheduledThreadPoolExecutor( poolSize, new ThreadFactory() {
+            @Override
+            public Thread newThread( Runnable r ) {
+                Thread t = new Thread( r, "stabilizer-" + threadNumber.incrementAndGet() );
+                t.setDaemon( true );
+                return t;
+            }
+        } );
+        this.executor.setRemoveOnCancelPolicy( true );
+    }
+
+
+    /**
+     * Constructor using a pool sized to the available processors (at most four threads).
+     */
+    public StabilizationScheduler() {
+        this( Math.max( 1, Math.min( 4, Runtime.getRuntime().availableProcessors() ) ) );
+    }
+
+
+    /**
+     * Starts the periodic stabilization of a node. An already existing schedule of the node is replaced.
+     *
+     * @param node the node to stabilize
+     */
+    public void schedule( ChordPeerImpl node ) {
+        int period = interval;
+        if ( period <= 0 || executor.isShutdown() ) {
+            return;
+        }
+        long initialDelay = ThreadLocalRandom.current().nextLong( period );
+        ScheduledFuture<?> future = executor.scheduleAtFixedRate( new StabilizeTimerTask( node ), initialDelay, period, TimeUnit.MILLISECONDS );
+        ScheduledFuture<?> previous = schedules.put( node.getNodeID(), future );
+        if ( previous != null ) {
+            previous.cancel( false );
+        }
+    }
+
+
+    /**
+     * Stops the periodic stabilization of a node, e.g., because it left the network.
+     *
+     * @param node the node
+     * @return true if the node had been scheduled
+     */
+    public boolean cancel( PeerNode node ) {
+        ScheduledFuture<?> future = schedules.remove( node.getNodeID() );
+        if ( future == null ) {
+            return false;
+        }
+        future.cancel( false );
+        return true;
+    }
+
+
+    /**
+     * Returns the number of nodes currently stabilizing periodically.
+     *
+     * @return number of scheduled nodes
+     */
+    public int size() {
+        return schedules.size();
+    }
+
+
+    public int getInterval() {
+        return interval;
+    }
+
+
+    /**
+     * Sets the stabilization interval. Only affects nodes scheduled afterwards.
+     *
+     * @param interval the interval in milliseconds; values less or equal to zero disable periodic stabilization
+     */
+    public void setInterval( int interval ) {
+        this.interval = interval;
+    }
+
+
+    /**
+     * Cancels all schedules and stops the threads of this scheduler.
+     */
+    public void shutdown() {
+        schedules.clear();
+        executor.shutdownNow();
+    }
+}
@@ -1,11 +1,19 @@
 package ch.unibas.dmi.dbis.fds.p2p;
 
-import java.util.TimerTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-public class StabilizeTimerTask extends TimerTask
+public class StabilizeTimerTask implements Runnable
 {
+    private static final Logger log = Logger.getLogger( StabilizeTimerTask.class.getSimpleName() );
+    
     private final ChordPeerImpl node;
     
+    /**
+     * Number of runs so far, to repair the replicas every few runs.
+     */
+    private int runs;
+    
     public StabilizeTimerTask(ChordPeerImpl node_)
     {
         this.node = node_;
@@ -14,8 +22,21 @@ public class StabilizeTimerTask extends TimerTask
     @Override
     public void run()
     {
-        this.node.stabilize(this.node);
-        
+        // An exception escaping a periodic task would silently cancel all further runs of it
+        try
+        {
+            this.node.stabilize(this.node);
+            
+            ChordNetwork network = (ChordNetwork) this.node.network;
+            if (network.getReplicationFactor() > 1 && ++this.runs % network.getReplicaRepairPeriod() == 0)
+            {
+                this.node.repairReplicas();
+            }
+        }
+        catch (RuntimeException e)
+        {
+            log.log( Level.WARNING, "Stabilization of " + this.node.getNodeID() + " failed", e );
+        }
     }
 
 }
@@ -0,0 +1,470 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+
+/**
+ * Append-only log of the SET queries of a network, so the data items survive a crash of the JVM. Records are collected in memory and written and forced to disk by a background thread in batches ("group commit"): once a batch reaches a configured size or a configured interval passed since the last commit, whichever comes first. Thus, many SETs share one force().
+ * <p>
+ * Each record consists of its length, a CRC32 of its content, and key and value. A record torn by a crash fails the check; it and everything after it is discarded when the log is opened again.
+ *
+ * @see Network#setWriteAheadLog(WriteAheadLog)
+ */
+public class WriteAheadLog implements Closeable {
+
+    /**
+     * Default number of bytes after which a batch is committed.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1 << 20;
+
+    /**
+     * Default maximum interval in milliseconds between appending a record and committing it.
+     */
+    public static final long DEFAULT_COMMIT_INTERVAL = 10;
+
+    /**
+     * Size of the record header: length and checksum of the content.
+     */
+    private static final int HEADER_SIZE = 8;
+
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Number of replayed data items stored with one batched SET.
+     */
+    private static final int REPLAY_BATCH_SIZE = 1024;
+
+
+    private final File file;
+    private final FileChannel channel;
+    private final int batchSize;
+    private final long commitIntervalNanos;
+    private final boolean waitForCommit;
+
+    /**
+     * Length of the valid records found when the log was opened.
+     */
+    private final long openedLength;
+
+    private final Thread committer;
+
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Records appended, but not yet handed to the committer. Guarded by this.
+     */
+    private ByteBuffer pending;
+
+    /**
+     * Log positions after the last appended and after the last committed record. Guarded by this.
+     */
+    private long appendedLength;
+    private long committedLength;
+
+    private long records;
+    private long commits;
+    private IOException failure;
+    private boolean closed;
+
+
+    private WriteAheadLog( File file, FileChannel channel, long length, int batchSize, long commitIntervalMillis, boolean waitForCommit ) {
+        this.file = file;
+        this.channel = channel;
+        this.openedLength = length;
+        this.appendedLength = length;
+        this.committedLength = length;
+        this.batchSize = batchSize;
+        this.commitIntervalNanos = TimeUnit.MILLISECONDS.toNanos( commitIntervalMillis );
+        this.waitForCommit = waitForCommit;
+        this.pending = ByteBuffer.allocate( batchSize + (batchSize >> 2) );
+        this.committer = new Thread( new Runnable() {
+            @Override
+            public void run() {
+                commit();
+            }
+        }, "wal-committer" );
+        this.committer.setDaemon( true );
+        this.committer.start();
+    }
+
+
+    /**
+     * Opens a log, creating the file if it does not exist. Records are appended after the valid records already in the file; a torn tail is cut off.
+     *
+     * @param file the file
+     * @param batchSize number of bytes after which a batch is committed, at least 1
+     * @param commitIntervalMillis maximum interval in milliseconds between appending a record and committing it
+     * @param waitForCommit if true, appending returns only after the record is on disk; otherwise up to one batch or interval of SETs may be lost in a crash
+     * @return the log
+     * @throws IOException if the file cannot be opened
+     */
+    public static WriteAheadLog open( File file, int batchSize, long commitIntervalMillis, boolean waitForCommit ) throws IOException {
+        if ( batchSize < 1 ) {
+            throw new IllegalArgumentException( "batchSize must be at least 1." );
+        }
+        FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE );
+        try {
+            long length = scan( channel, Long.MAX_VALUE, null );
+            if ( length < channel.size() ) {
+                channel.truncate( length );
+                channel.force( true );
+            }
+            channel.position( length );
+            return new WriteAheadLog( file, channel, length, batchSize, commitIntervalMillis, waitForCommit );
+        } catch ( IOException | RuntimeException e ) {
+            channel.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Opens a log with the default batch size and commit interval, not waiting for commits.
+     *
+     * @param file the file
+     * @return the log
+     * @throws IOException if the file cannot be opened
+     */
+    public static WriteAheadLog open( File file ) throws IOException {
+        return open( file, DEFAULT_BATCH_SIZE, DEFAULT_COMMIT_INTERVAL, false );
+    }
+
+
+    public File getFile() {
+        return file;
+    }
+
+
+    /**
+     * Appends a SET of a data item.
+     *
+     * @param key of data item
+     * @param value of data item
+     * @throws IllegalStateException if the log is closed
+     * @throws UncheckedIOException if committing failed
+     */
+    public void append( String key, String value ) {
+        byte[] keyBytes = key.getBytes( StandardCharsets.UTF_8 );
+        byte[] valueBytes = value.getBytes( StandardCharsets.UTF_8 );
+        synchronized ( this ) {
+            append( keyBytes, valueBytes );
+            awaitCommit( appendedLength );
+        }
+    }
+
+
+    /**
+     * Appends the SETs of a number of data items. They are committed together, unless the batch size is reached in between.
+     *
+     * @param items the data items
+     * @throws IllegalStateException if the log is closed
+     * @throws UncheckedIOException if committing failed
+     */
+    public void appendAll( Map<String, String> items ) {
+        synchronized ( this ) {
+            for ( Map.Entry<String, String> item : items.entrySet() ) {
+                append( item.getKey().getBytes( StandardCharsets.UTF_8 ), item.getValue().getBytes( StandardCharsets.UTF_8 ) );
+            }
+            awaitCommit( appendedLength );
+        }
+    }
+
+
+    private void append( byte[] key, byte[] value ) {
+        checkUsable();
+        int length = 4 + key.length + value.length;
+        if ( pending.remaining() < HEADER_SIZE + length ) {
+            ByteBuffer grown = ByteBuffer.allocate( Math.max( 2 * pending.capacity(), pending.position() + HEADER_SIZE + length ) );
+            pending.flip();
+            pending = grown.put( pending );
+        }
+        boolean wasEmpty = pending.position() == 0;
+        int start = pending.position();
+        pending.putInt( length ).putInt( 0 ).putInt( key.length ).put( key ).put( value );
+        crc.reset();
+        crc.update( pending.array(), start + HEADER_SIZE, length );
+        pending.putInt( start + 4, (int) crc.getValue() );
+        appendedLength += HEADER_SIZE + length;
+        records++;
+        // the committer waits for the first record of a batch and for full batches
+        if ( wasEmpty || pending.position() >= batchSize ) {
+            notifyAll();
+        }
+    }
+
+
+    private void awaitCommit( long length ) {
+        if ( !waitForCommit ) {
+            return;
+        }
+        boolean interrupted = false;
+        try {
+            while ( committedLength < length ) {
+                checkUsable();
+                try {
+                    wait();
+                } catch ( InterruptedException e ) {
+                    // the caller relies on the record being durable, so keep waiting and interrupt it afterwards
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if ( interrupted ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    private void checkUsable() {
+        if ( failure != null ) {
+            throw new UncheckedIOException( "Writing the log " + file + " failed", failure );
+        }
+        if ( closed ) {
+            throw new IllegalStateException( "The log " + file + " is closed." );
+        }
+    }
+
+
+    /**
+     * Run by the committer thread: hands the pending records over in batches, then writes and forces them without holding the lock, so SETs continue meanwhile.
+     */
+    private void commit() {
+        ByteBuffer batch = ByteBuffer.allocate( pending.capacity() );
+        long lastCommit = System.nanoTime();
+        try {
+            while ( true ) {
+                long length;
+                synchronized ( this ) {
+                    while ( !closed && pending.position() < batchSize ) {
+                        if ( pending.position() == 0 ) {
+                            wait();
+                            continue;
+                        }
+                        long remaining = lastCommit + commitIntervalNanos - System.nanoTime();
+                        if ( remaining <= 0 ) {
+                            break;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait( this, remaining );
+                    }
+                    if ( pending.position() == 0 ) {
+                        // closed and nothing left
+                        return;
+                    }
+                    ByteBuffer full = pending;
+                    pending = batch;
+                    batch = full;
+                    length = appendedLength;
+                }
+
+                batch.flip();
+                while ( batch.hasRemaining() ) {
+                    channel.write( batch );
+                }
+                channel.force( false );
+                batch.clear();
+                lastCommit = System.nanoTime();
+
+                synchronized ( this ) {
+                    committedLength = length;
+                    commits++;
+                    notifyAll();
+                }
+            }
+        } catch ( IOException e ) {
+            synchronized ( this ) {
+                failure = e;
+                notifyAll();
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Stores the data items of all records the log contained when it was opened in a network, by batched SETs from random peers. Thus, every item ends up at the peer responsible for it in the current network. Call this before the log is attached to the network, otherwise the replayed items are logged again.
+     *
+     * @param network the network, with at least one peer
+     * @return the number of replayed records
+     * @throws IOException if the log cannot be read
+     * @throws IllegalStateException if the log is already attached to the network, or the network has no peers
+     */
+    public long replay( final Network network ) throws IOException {
+        if ( network.getWriteAheadLog() == this ) {
+            throw new IllegalStateException( "The log must be replayed before it is attached to the network." );
+        }
+        final Map<String, String> batch = new LinkedHashMap<String, String>();
+        final long[] replayed = new long[1];
+        scan( channel, openedLength, new RecordVisitor() {
+            @Override
+            public void visit( String key, String value ) {
+                // a later SET of the same key within a batch replaces the earlier one, as it would have
+                batch.put( key, value );
+                replayed[0]++;
+                if ( batch.size() >= REPLAY_BATCH_SIZE ) {
+                    storeReplayed( network, batch );
+                }
+            }
+        } );
+        storeReplayed( network, batch );
+        return replayed[0];
+    }
+
+
+    private static void storeReplayed( Network network, Map<String, String> batch ) {
+        if ( batch.isEmpty() ) {
+            return;
+        }
+        PeerNode peer = network.getRandomPeer();
+        if ( peer == null ) {
+            throw new IllegalStateException( "Replaying a log needs at least one peer." );
+        }
+        peer.setDataItems( null, batch );
+        batch.clear();
+    }
+
+
+    /**
+     * Receives the records of a log.
+     */
+    private interface RecordVisitor {
+
+        void visit( String key, String value );
+    }
+
+
+    /**
+     * Reads the valid records at the beginning of a log, up to the first torn or corrupt one.
+     *
+     * @param channel the channel of the log, which is read by position, i.e., without moving its position
+     * @param limit position in the log to stop at
+     * @param visitor receives the records; may be null
+     * @return the length of the valid records
+     */
+    private static long scan( FileChannel channel, long limit, RecordVisitor visitor ) throws IOException {
+        long size = Math.min( limit, channel.size() );
+        ByteBuffer buffer = ByteBuffer.allocate( READ_BUFFER_SIZE );
+        buffer.flip();
+        long readPosition = 0;
+        long valid = 0;
+        CRC32 checksum = new CRC32();
+        while ( valid + HEADER_SIZE <= size ) {
+            if ( buffer.remaining() < HEADER_SIZE ) {
+                readPosition = fill( channel, buffer, readPosition, HEADER_SIZE );
+            }
+            int start = buffer.position();
+            int length = buffer.getInt( start );
+            if ( length < 4 || length > size - valid - HEADER_SIZE ) {
+                break;
+            }
+            if ( buffer.capacity() < HEADER_SIZE + length ) {
+                ByteBuffer grown = ByteBuffer.allocate( HEADER_SIZE + length );
+                buffer = grown.put( buffer );
+                buffer.flip();
+                start = 0;
+            }
+            if ( buffer.remaining() < HEADER_SIZE + length ) {
+                readPosition = fill( channel, buffer, readPosition, HEADER_SIZE + length );
+                start = 0;
+            }
+            checksum.reset();
+            checksum.update( buffer.array(), start + HEADER_SIZE, length );
+            int keyLength = buffer.getInt( start + HEADER_SIZE );
+            if ( (int) checksum.getValue() != buffer.getInt( start + 4 ) || keyLength < 0 || keyLength > length - 4 ) {
+                break;
+            }
+            if ( visitor != null ) {
+                int keyStart = start + HEADER_SIZE + 4;
+                visitor.visit( new String( buffer.array(), keyStart, keyLength, StandardCharsets.UTF_8 ),
+                        new String( buffer.array(), keyStart + keyLength, length - 4 - keyLength, StandardCharsets.UTF_8 ) );
+            }
+            buffer.position( start + HEADER_SIZE + length );
+            valid += HEADER_SIZE + length;
+        }
+        return valid;
+    }
+
+
+    /**
+     * Compacts the buffer and reads from the channel until at least the given number of bytes is available. The caller checked that the channel holds enough bytes.
+     *
+     * @return the new read position
+     */
+    private static long fill( FileChannel channel, ByteBuffer buffer, long readPosition, int bytes ) throws IOException {
+        buffer.compact();
+        while ( buffer.position() < bytes ) {
+            int read = channel.read( buffer, readPosition );
+            if ( read < 0 ) {
+                throw new IOException( "Unexpected end of the log." );
+            }
+            readPosition += read;
+        }
+        buffer.flip();
+        return readPosition;
+    }
+
+
+    /**
+     * Returns the number of records appended since the log was opened.
+     *
+     * @return number of records
+     */
+    public synchronized long getRecords() {
+        return records;
+    }
+
+
+    /**
+     * Returns the number of batches committed, i.e., of calls to force(), since the log was opened.
+     *
+     * @return number of commits
+     */
+    public synchronized long getCommits() {
+        return commits;
+    }
+
+
+    /**
+     * Commits all pending records and closes the log.
+     *
+     * @throws IOException if committing failed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized ( this ) {
+            if ( closed ) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            committer.join();
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        synchronized ( this ) {
+            if ( failure != null ) {
+                throw failure;
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * Builds stable chord rings for the benchmarks.
+ */
+final class BenchmarkRings {
+
+    private BenchmarkRings() {
+    }
+
+
+    /**
+     * Creates a chord network without periodic stabilization and bulk loads a stable ring of the given number of nodes, with all finger tables fixed.
+     *
+     * @param numberOfBits bits used for the identifier ring
+     * @param numberOfNodes number of nodes in the ring
+     * @param useSuccessorsOnly passed to the created peers
+     * @return the network
+     */
+    static ChordNetwork build( int numberOfBits, int numberOfNodes, boolean useSuccessorsOnly ) {
+        ChordNetwork network = new ChordNetwork( numberOfBits, ChordPeerImpl.class );
+        network.getStabilizationScheduler().setInterval( 0 );
+        network.bulkLoad( numberOfNodes, "Node_", useSuccessorsOnly );
+        return network;
+    }
+
+
+    /**
+     * Returns the peers of a chord network in ring order.
+     *
+     * @param network the network
+     * @return the peers sorted by their hash
+     */
+    static List<ChordPeerImpl> peers( Network network ) {
+        List<ChordPeerImpl> peers = new ArrayList<ChordPeerImpl>();
+        for ( PeerNode p : network.getPeers() ) {
+            peers.add( (ChordPeerImpl) p );
+        }
+        Collections.sort( peers, new Comparator<ChordPeerImpl>() {
+            @Override
+            public int compare( ChordPeerImpl a, ChordPeerImpl b ) {
+                return Long.compare( a.n, b.n );
+            }
+        } );
+        return peers;
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * Entry point of the benchmarks jar. Accepts the usual JMH command line options and always adds the GC profiler, so that allocation rates are reported next to the timings.
+ */
+public class BenchmarkRunner {
+
+    public static void main( String[] args ) throws Exception {
+        CommandLineOptions cmdOptions = new CommandLineOptions( args );
+        new Runner( new OptionsBuilder()
+                .parent( cmdOptions )
+                .addProfiler( GCProfiler.class )
+                .build() ).run();
+    }
+}
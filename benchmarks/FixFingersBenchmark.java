@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Cost of refreshing the complete finger table of a node on a stable ring.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FixFingersBenchmark {
+
+    @Param({ "16", "24" })
+    private int numberOfBits;
+
+    @Param({ "100", "1000" })
+    private int numberOfNodes;
+
+    private ChordPeerImpl[] peers;
+    private int next;
+
+
+    @Setup
+    public void setUp() {
+        List<ChordPeerImpl> ring = BenchmarkRings.peers( BenchmarkRings.build( numberOfBits, numberOfNodes, false ) );
+        peers = ring.toArray( new ChordPeerImpl[ring.size()] );
+    }
+
+
+    @Benchmark
+    public void fixFingers() {
+        peers[Math.floorMod( next++, peers.length )].fixFingers( 0, numberOfBits - 1 );
+    }
+}
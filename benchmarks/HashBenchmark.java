@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Compares {@link Network#hash(String)} against the former implementation, which instantiated a new digest per call and assembled the value with floating point math.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark {
+
+    @Param({ "24", "56" })
+    private int numberOfBits;
+
+    /**
+     * Number of distinct keys cycled through.
+     */
+    @Param({ "1024" })
+    private int numberOfKeys;
+
+    private Network network;
+    private Network cachingNetwork;
+    private String[] keys;
+    private int next;
+
+
+    @Setup
+    public void setUp() {
+        network = new FullyConnectedNetwork( numberOfBits );
+        cachingNetwork = new FullyConnectedNetwork( numberOfBits );
+        cachingNetwork.setKeyHashCacheSize( numberOfKeys );
+        keys = new String[numberOfKeys];
+        for ( int i = 0; i < numberOfKeys; i++ ) {
+            keys[i] = "Key_" + i;
+        }
+    }
+
+
+    private String nextKey() {
+        String key = keys[next];
+        next = (next + 1) % keys.length;
+        return key;
+    }
+
+
+    @Benchmark
+    public long legacyHash() {
+        return legacyHash( nextKey(), numberOfBits );
+    }
+
+
+    @Benchmark
+    public long hash() {
+        return network.hash( nextKey() );
+    }
+
+
+    @Benchmark
+    public long cachedKeyHash() {
+        return cachingNetwork.hash( nextKey() );
+    }
+
+
+    @Benchmark
+    public long memoizedNodeIdHash() {
+        return network.hashNodeId( nextKey() );
+    }
+
+
+    /**
+     * The implementation of Network.hash before the introduction of {@link HashEngine}.
+     */
+    static long legacyHash( String value, int numberOfBits ) {
+        try {
+            int basis = (int) Math.pow( 2, numberOfBits );
+            MessageDigest md = MessageDigest.getInstance( "SHA" );
+            byte[] digest = md.digest( value.getBytes() );
+            long v = 0;
+            for ( int i = 0; i < 7; i++ ) {
+                v = v + (digest[i] & 0xff) * (int) Math.pow( 256, i );
+            }
+            v = v % basis;
+            return v;
+        } catch ( NoSuchAlgorithmException e ) {
+            System.err.println( "Hash not supported by your JVM!" );
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Cost of joining a node into a stable ring as a function of the ring size. Every iteration joins a batch of nodes into a freshly built ring.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, batchSize = JoinBenchmark.BATCH_SIZE)
+@Measurement(iterations = 10, batchSize = JoinBenchmark.BATCH_SIZE)
+@Fork(1)
+public class JoinBenchmark {
+
+    static final int BATCH_SIZE = 100;
+
+    @Param({ "24" })
+    private int numberOfBits;
+
+    @Param({ "100", "1000" })
+    private int numberOfNodes;
+
+    @Param({ "false", "true" })
+    private boolean useSuccessorsOnly;
+
+    private ChordNetwork network;
+    private int next;
+
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        network = BenchmarkRings.build( numberOfBits, numberOfNodes, useSuccessorsOnly );
+        next = 0;
+    }
+
+
+    @Benchmark
+    public PeerNode join() {
+        return network.createPeer( "Joining_" + next++, useSuccessorsOnly );
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) Databases and Information Systems Research Group, University of Basel, Switzerland
+ */
+
+package ch.unibas.dmi.dbis.fds.p2p;
+
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Latency of {@link ChordPeerImpl#lookupNodeForItem(PeerNode, String)} on a stable ring, routed either via the finger table or via successors only. The routing is verified against the {@link RingIndex} before measuring, which also gives the zero-message baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+
+    @Param({ "16", "24" })
+    private int numberOfBits;
+
+    @Param({ "100", "1000" })
+    private int numberOfNodes;
+
+    @Param({ "false", "true" })
+    private boolean useSuccessorsOnly;
+
+    private ChordNetwork network;
+    private ChordPeerImpl[] peers;
+    private String[] keys;
+    private int next;
+
+
+    @Setup
+    public void setUp() {
+        network = BenchmarkRings.build( numberOfBits, numberOfNodes, useSuccessorsOnly );
+        List<ChordPeerImpl> ring = BenchmarkRings.peers( network );
+        peers = ring.toArray( new ChordPeerImpl[ring.size()] );
+        keys = new String[4096];
+        for ( int i = 0; i < keys.length; i++ ) {
+            keys[i] = "Key_" + i;
+        }
+        for ( int i = 0; i < keys.length; i++ ) {
+            PeerNode expected = network.getRingIndex().ownerOf( network.hash( keys[i] ) );
+            PeerNode node = peers[(i * 31) % peers.length].lookupNodeForItem( null, keys[i] );
+            if ( node.getNodeHash() != expected.getNodeHash() ) {
+                throw new IllegalStateException( keys[i] + " was routed to " + node.getNodeID() + " instead of " + expected.getNodeID() );
+            }
+        }
+    }
+
+
+    @Benchmark
+    public PeerNode lookup() {
+        int i = next++;
+        ChordPeerImpl start = peers[Math.floorMod( i * 31, peers.length )];
+        return start.lookupNodeForItem( null, keys[i & (keys.length - 1)] );
+    }
+
+
+    /**
+     * Resolves the responsible node directly from the ring index, i.e., oracle routing without any hops.
+     */
+    @Benchmark
+    public PeerNode oracleLookup() {
+        int i = next++;
+        return network.getRingIndex().ownerOf( network.hash( keys[i & (keys.length - 1)] ) );
+    }
+}